@@ -0,0 +1,130 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Binary min-heap of tree entries keyed by squared distance, in parallel primitive arrays
+// (no wrapper object per entry). An entry is either a node, or a point given by its record
+// id (node == null).
+final class DistanceQueue {
+
+    private double[] keys;
+    private TreeNode[] nodes;
+    private int[] blockIds;
+    private int[] slotIds;
+    private int size;
+
+    DistanceQueue(int capacity) {
+        capacity = Math.max(capacity, 4);
+        keys = new double[capacity];
+        nodes = new TreeNode[capacity];
+        blockIds = new int[capacity];
+        slotIds = new int[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+
+    void addNode(double key, TreeNode node) {
+        add(key, node, 0, 0);
+    }
+
+    void addPoint(double key, int blockId, int slotId) {
+        add(key, null, blockId, slotId);
+    }
+
+    // Smallest key, and the fields of the entry holding it
+    double peekKey() {
+        return keys[0];
+    }
+
+    TreeNode peekNode() {
+        return nodes[0];
+    }
+
+    int peekBlockId() {
+        return blockIds[0];
+    }
+
+    int peekSlotId() {
+        return slotIds[0];
+    }
+
+    // Removes the head entry
+    void poll() {
+        size--;
+        if (size > 0) {
+            move(size, 0);
+            siftDown(0);
+        }
+        nodes[size] = null;
+    }
+
+    // Empties a queue of points and returns their record ids in reverse polling order (with
+    // negated distances as keys, the nearest point first)
+    List<TreeRecordID> drainReversed() {
+        TreeRecordID[] ordered = new TreeRecordID[size];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = new TreeRecordID(blockIds[0], slotIds[0]);
+            poll();
+        }
+        return new ArrayList<>(Arrays.asList(ordered));
+    }
+
+    private void add(double key, TreeNode node, int blockId, int slotId) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            blockIds = Arrays.copyOf(blockIds, capacity);
+            slotIds = Arrays.copyOf(slotIds, capacity);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            move(parent, i);
+            i = parent;
+        }
+        keys[i] = key;
+        nodes[i] = node;
+        blockIds[i] = blockId;
+        slotIds[i] = slotId;
+    }
+
+    private void siftDown(int i) {
+        double key = keys[i];
+        TreeNode node = nodes[i];
+        int blockId = blockIds[i], slotId = slotIds[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (key <= keys[child]) break;
+            move(child, i);
+            i = child;
+        }
+        keys[i] = key;
+        nodes[i] = node;
+        blockIds[i] = blockId;
+        slotIds[i] = slotId;
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        nodes[to] = nodes[from];
+        blockIds[to] = blockIds[from];
+        slotIds[to] = slotIds[from];
+    }
+}
@@ -0,0 +1,116 @@
+package spatialTree;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Hilbert space-filling curve keys for points of any dimensionality. Points are scaled to a
+// grid over their bounding box; consecutive keys are neighbouring grid cells, so sorting by
+// key keeps nearby points together (used for packing the tree and for ordering data records).
+public final class HilbertCurve {
+
+    // Bits in a key; kept within a double's mantissa so keys sort exactly as doubles
+    private static final int KEY_BITS = 52;
+
+    private HilbertCurve() {}
+
+    // Grid resolution (bits per axis) used for `dims` dimensions
+    public static int bitsPerAxis(int dims) {
+        return Math.max(1, Math.min(31, KEY_BITS / dims));
+    }
+
+    // Keys of `count` points packed in coords (stride dims)
+    public static double[] keys(double[] coords, int count, int dims) {
+        return keys(coords, count, dims, null);
+    }
+
+    // Same, computing the keys in chunks on the pool (null = this thread)
+    static double[] keys(double[] coords, int count, int dims, ForkJoinPool pool) {
+        double[] lo = new double[dims];
+        double[] scale = new double[dims];
+        int bits = bitsPerAxis(dims);
+        gridOf(coords, count, dims, bits, lo, scale);
+
+        double[] keys = new double[count];
+        Parallel.forRange(pool, 0, count, 1 << 14, (from, to) -> {
+            long[] cell = new long[dims];
+            for (int i = from; i < to; i++) {
+                for (int d = 0; d < dims; d++) {
+                    cell[d] = (long) ((coords[i * dims + d] - lo[d]) * scale[d]);
+                }
+                keys[i] = key(cell, bits);
+            }
+        });
+        return keys;
+    }
+
+    // Order in which to store the points (e.g. records of the data file) along the curve
+    public static int[] order(List<double[]> points, int dims) {
+        int count = points.size();
+        double[] coords = new double[count * dims];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(points.get(i), 0, coords, i * dims, dims);
+        }
+        int[] order = IndexSorter.identity(count);
+        IndexSorter.sort(order, 0, count, keys(coords, count, dims));
+        return order;
+    }
+
+    // Bounding box origin and per-axis scale onto [0, 2^bits - 1]
+    private static void gridOf(double[] coords, int count, int dims, int bits, double[] lo, double[] scale) {
+        double[] hi = new double[dims];
+        for (int d = 0; d < dims; d++) {
+            lo[d] = Double.MAX_VALUE;
+            hi[d] = -Double.MAX_VALUE;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < dims; d++) {
+                double v = coords[i * dims + d];
+                if (v < lo[d]) lo[d] = v;
+                if (v > hi[d]) hi[d] = v;
+            }
+        }
+        double cells = (1L << bits) - 1;
+        for (int d = 0; d < dims; d++) {
+            scale[d] = hi[d] > lo[d] ? cells / (hi[d] - lo[d]) : 0.0;
+        }
+    }
+
+    // Hilbert index of a grid cell (Skilling, "Programming the Hilbert curve", 2004):
+    // transforms the axes in place into the transposed index, then interleaves its bits.
+    // cell is overwritten.
+    static long key(long[] cell, int bits) {
+        int n = cell.length;
+        long top = 1L << (bits - 1);
+
+        // Inverse undo excess work
+        for (long q = top; q > 1; q >>= 1) {
+            long p = q - 1;
+            for (int i = 0; i < n; i++) {
+                if ((cell[i] & q) != 0) {
+                    cell[0] ^= p;
+                } else {
+                    long t = (cell[0] ^ cell[i]) & p;
+                    cell[0] ^= t;
+                    cell[i] ^= t;
+                }
+            }
+        }
+
+        // Gray encode
+        for (int i = 1; i < n; i++) cell[i] ^= cell[i - 1];
+        long t = 0;
+        for (long q = top; q > 1; q >>= 1) {
+            if ((cell[n - 1] & q) != 0) t ^= q - 1;
+        }
+        for (int i = 0; i < n; i++) cell[i] ^= t;
+
+        // Interleave: most significant bit of axis 0 first
+        long key = 0;
+        for (int b = bits - 1; b >= 0; b--) {
+            for (int i = 0; i < n; i++) {
+                key = (key << 1) | ((cell[i] >>> b) & 1L);
+            }
+        }
+        return key;
+    }
+}
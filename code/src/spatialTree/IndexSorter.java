@@ -0,0 +1,140 @@
+package spatialTree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Sorts int index arrays by primitive double keys (no boxing, no comparators)
+final class IndexSorter {
+
+    private static final int INSERTION_THRESHOLD = 16;
+    private static final int PARALLEL_THRESHOLD = 1 << 13; // smaller ranges are sorted by one task
+
+    private IndexSorter() {}
+
+    // Sorts idx[from, to) ascending by keys[idx[i]]
+    static void sort(int[] idx, int from, int to, double[] keys) {
+        sort(idx, from, to, keys, 1, 0);
+    }
+
+    // Sorts idx[from, to) ascending by values[idx[i] * stride + offset]
+    static void sort(int[] idx, int from, int to, double[] values, int stride, int offset) {
+        while (to - from > INSERTION_THRESHOLD) {
+            int mid = (from + to) >>> 1;
+            double pivot = medianOfThree(
+                    values[idx[from] * stride + offset],
+                    values[idx[mid] * stride + offset],
+                    values[idx[to - 1] * stride + offset]);
+
+            // Three-way partition: [from, lt) < pivot, [lt, gt) == pivot, [gt, to) > pivot
+            int lt = from, i = from, gt = to;
+            while (i < gt) {
+                double v = values[idx[i] * stride + offset];
+                if (v < pivot) {
+                    swap(idx, lt++, i++);
+                } else if (v > pivot) {
+                    swap(idx, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+
+            // Recurse into the smaller half, loop on the larger one
+            if (lt - from < to - gt) {
+                sort(idx, from, lt, values, stride, offset);
+                from = gt;
+            } else {
+                sort(idx, gt, to, values, stride, offset);
+                to = lt;
+            }
+        }
+        insertionSort(idx, from, to, values, stride, offset);
+    }
+
+    // Same as sort, with both sides of every large partition sorted in parallel on the pool
+    static void parallelSort(ForkJoinPool pool, int[] idx, int from, int to, double[] values, int stride, int offset) {
+        if (pool == null || to - from <= PARALLEL_THRESHOLD) {
+            sort(idx, from, to, values, stride, offset);
+            return;
+        }
+        Parallel.invoke(pool, new SortTask(idx, from, to, values, stride, offset));
+    }
+
+    private static final class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] idx;
+        private final int from, to;
+        private final double[] values;
+        private final int stride, offset;
+
+        SortTask(int[] idx, int from, int to, double[] values, int stride, int offset) {
+            this.idx = idx;
+            this.from = from;
+            this.to = to;
+            this.values = values;
+            this.stride = stride;
+            this.offset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                sort(idx, from, to, values, stride, offset);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            double pivot = medianOfThree(
+                    values[idx[from] * stride + offset],
+                    values[idx[mid] * stride + offset],
+                    values[idx[to - 1] * stride + offset]);
+
+            int lt = from, i = from, gt = to;
+            while (i < gt) {
+                double v = values[idx[i] * stride + offset];
+                if (v < pivot) {
+                    swap(idx, lt++, i++);
+                } else if (v > pivot) {
+                    swap(idx, i, --gt);
+                } else {
+                    i++;
+                }
+            }
+            invokeAll(new SortTask(idx, from, lt, values, stride, offset),
+                    new SortTask(idx, gt, to, values, stride, offset));
+        }
+    }
+
+    // Returns 0..n-1
+    static int[] identity(int n) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        return idx;
+    }
+
+    private static void insertionSort(int[] idx, int from, int to, double[] values, int stride, int offset) {
+        for (int i = from + 1; i < to; i++) {
+            int cur = idx[i];
+            double v = values[cur * stride + offset];
+            int j = i - 1;
+            while (j >= from && values[idx[j] * stride + offset] > v) {
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = cur;
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (a < b) {
+            if (b < c) return b;
+            return a < c ? c : a;
+        }
+        if (a < c) return a;
+        return b < c ? c : b;
+    }
+
+    private static void swap(int[] idx, int i, int j) {
+        int t = idx[i];
+        idx[i] = idx[j];
+        idx[j] = t;
+    }
+}
@@ -12,34 +12,22 @@ public class MBR {
 
     // Returns the area (or volume) of the MBR
     public double area() {
-        double area = 1.0;
-        for (int i = 0; i < min.length; i++) {
-            area *= (max[i] - min[i]);
-        }
-        return area;
+        return area(min, max, 0, min.length);
+    }
+
+    // Returns the margin (sum of edge lengths) of the MBR
+    public double margin() {
+        return margin(min, max, 0, min.length);
     }
 
     // Checks if this MBR intersects with another MBR
     public boolean intersects(MBR other) {
-        for (int i = 0; i < min.length; i++) {
-            if (this.max[i] < other.min[i] || this.min[i] > other.max[i]) {
-                return false;
-            }
-        }
-        return true;
+        return intersects(min, max, 0, other.min, other.max, 0, min.length);
     }
 
     // Calculates how much the area increases if merging with another MBR
     public double enlargement(MBR other) {
-        double[] newMin = new double[min.length];
-        double[] newMax = new double[max.length];
-        for (int i = 0; i < min.length; i++) {
-            newMin[i] = Math.min(min[i], other.min[i]);
-            newMax[i] = Math.max(max[i], other.max[i]);
-        }
-        double originalArea = this.area();
-        double newArea = new MBR(newMin, newMax).area();
-        return newArea - originalArea;
+        return enlargement(min, max, 0, other.min, other.max, 0, min.length);
     }
 
     // Expands this MBR to include the other MBR
@@ -50,6 +38,19 @@ public class MBR {
         }
     }
 
+    // Expands this MBR to include a point
+    public void include(double[] point) {
+        for (int i = 0; i < min.length; i++) {
+            if (point[i] < min[i]) min[i] = point[i];
+            if (point[i] > max[i]) max[i] = point[i];
+        }
+    }
+
+    // Returns an independent copy of this MBR
+    public MBR copy() {
+        return new MBR(min.clone(), max.clone());
+    }
+
     // Creates an MBR from a single point
     public static MBR fromPoint(double[] point) {
         return new MBR(point.clone(), point.clone());
@@ -65,24 +66,12 @@ public class MBR {
 
     // Checks if a point is inside this MBR
     public boolean contains(double[] point) {
-        for (int i = 0; i < min.length; i++) {
-            if (point[i] < min[i] || point[i] > max[i]) {
-                return false;
-            }
-        }
-        return true;
+        return containsPoint(min, max, 0, point, min.length);
     }
 
     // Returns the minimum Euclidean distance from a point to this MBR
     public double minDistance(double[] point) {
-        double sum = 0.0;
-        for (int i = 0; i < min.length; i++) {
-            double v = 0.0;
-            if (point[i] < min[i]) v = min[i] - point[i];
-            else if (point[i] > max[i]) v = point[i] - max[i];
-            sum += v * v;
-        }
-        return Math.sqrt(sum);
+        return Math.sqrt(minDistanceSq(min, max, 0, point, min.length));
     }
 
     // Returns the center of the MBR
@@ -94,4 +83,110 @@ public class MBR {
         }
         return center;
     }
-}
\ No newline at end of file
+
+    // ==================== FLAT-ARRAY PRIMITIVES ====================
+    // Boxes are read from packed min/max arrays starting at `off`, so callers
+    // can keep many boxes in two double[] and never allocate on the hot path.
+
+    // Area of the box at off
+    public static double area(double[] min, double[] max, int off, int dims) {
+        double area = 1.0;
+        for (int i = 0; i < dims; i++) {
+            area *= (max[off + i] - min[off + i]);
+        }
+        return area;
+    }
+
+    // Margin (sum of edge lengths) of the box at off
+    public static double margin(double[] min, double[] max, int off, int dims) {
+        double margin = 0.0;
+        for (int i = 0; i < dims; i++) {
+            margin += max[off + i] - min[off + i];
+        }
+        return margin;
+    }
+
+    // Area increase of the box at off if it has to cover the point
+    public static double enlargement(double[] min, double[] max, int off, double[] point, int dims) {
+        double area = 1.0;
+        double enlarged = 1.0;
+        for (int i = 0; i < dims; i++) {
+            double lo = min[off + i], hi = max[off + i];
+            area *= (hi - lo);
+            enlarged *= (Math.max(hi, point[i]) - Math.min(lo, point[i]));
+        }
+        return enlarged - area;
+    }
+
+    // Area increase of box a if it has to cover box b
+    public static double enlargement(double[] aMin, double[] aMax, int aOff,
+                                     double[] bMin, double[] bMax, int bOff, int dims) {
+        double area = 1.0;
+        double enlarged = 1.0;
+        for (int i = 0; i < dims; i++) {
+            double lo = aMin[aOff + i], hi = aMax[aOff + i];
+            area *= (hi - lo);
+            enlarged *= (Math.max(hi, bMax[bOff + i]) - Math.min(lo, bMin[bOff + i]));
+        }
+        return enlarged - area;
+    }
+
+    // Overlap area of boxes a and b (0 if they are disjoint)
+    public static double overlap(double[] aMin, double[] aMax, int aOff,
+                                 double[] bMin, double[] bMax, int bOff, int dims) {
+        double overlap = 1.0;
+        for (int i = 0; i < dims; i++) {
+            double lo = Math.max(aMin[aOff + i], bMin[bOff + i]);
+            double hi = Math.min(aMax[aOff + i], bMax[bOff + i]);
+            if (lo > hi) return 0.0;
+            overlap *= (hi - lo);
+        }
+        return overlap;
+    }
+
+    // Checks if boxes a and b intersect
+    public static boolean intersects(double[] aMin, double[] aMax, int aOff,
+                                     double[] bMin, double[] bMax, int bOff, int dims) {
+        for (int i = 0; i < dims; i++) {
+            if (aMax[aOff + i] < bMin[bOff + i] || aMin[aOff + i] > bMax[bOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Checks if the point lies inside the box at off
+    public static boolean containsPoint(double[] min, double[] max, int off, double[] point, int dims) {
+        for (int i = 0; i < dims; i++) {
+            if (point[i] < min[off + i] || point[i] > max[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Squared minimum Euclidean distance from a point to the box at off
+    public static double minDistanceSq(double[] min, double[] max, int off, double[] point, int dims) {
+        double sum = 0.0;
+        for (int i = 0; i < dims; i++) {
+            double v = 0.0;
+            if (point[i] < min[off + i]) v = min[off + i] - point[i];
+            else if (point[i] > max[off + i]) v = point[i] - max[off + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+
+    // Squared minimum Euclidean distance between boxes a and b (0 if they intersect)
+    public static double minDistanceSq(double[] aMin, double[] aMax, int aOff,
+                                       double[] bMin, double[] bMax, int bOff, int dims) {
+        double sum = 0.0;
+        for (int i = 0; i < dims; i++) {
+            double v = 0.0;
+            if (aMax[aOff + i] < bMin[bOff + i]) v = bMin[bOff + i] - aMax[aOff + i];
+            else if (bMax[bOff + i] < aMin[aOff + i]) v = aMin[aOff + i] - bMax[bOff + i];
+            sum += v * v;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,95 @@
+package spatialTree;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Distance browsing (Hjaltason & Samet): yields the points in order of increasing distance
+// from the query point, for callers that do not know k in advance. One priority queue holds
+// both nodes (keyed by the minimum distance to their box) and points; a node is expanded
+// only when it reaches the head, so the tree is read no further than the results taken.
+// Like RangeCursor, it reads one snapshot of a copy-on-write tree and fails fast otherwise.
+public final class NearestNeighborCursor implements Iterator<TreeRecordID> {
+
+    private final RStarTree tree;
+    private final double[] point;
+    private final long version;
+    private final boolean failFast;
+    private final DistanceQueue queue = new DistanceQueue(64);
+    private double lastDistanceSq = Double.NaN;
+
+    NearestNeighborCursor(RStarTree tree, TreeNode root, double[] point, long version, boolean failFast) {
+        this.tree = tree;
+        this.point = point;
+        this.version = version;
+        this.failFast = failFast;
+        MBR box = root.getMbr();
+        if (box != null) {
+            queue.addNode(MBR.minDistanceSq(box.getMin(), box.getMax(), 0, point, point.length), root);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return fetch();
+    }
+
+    @Override
+    public TreeRecordID next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        TreeRecordID result = new TreeRecordID(queue.peekBlockId(), queue.peekSlotId());
+        lastDistanceSq = queue.peekKey();
+        queue.poll();
+        return result;
+    }
+
+    // Distance from the query point to the last result returned by next() (NaN before the first)
+    public double distance() {
+        return Math.sqrt(lastDistanceSq);
+    }
+
+    // Sequential stream over the remaining results, nearest first
+    public Stream<TreeRecordID> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Makes sure the queue head is a point, if any is left
+    private boolean fetch() {
+        if (queue.isEmpty()) return false;
+        if (queue.peekNode() == null) return true;
+        if (!failFast) return expand();
+        tree.enterGate(PhaseGate.READ);
+        try {
+            if (tree.version() != version) throw new ConcurrentModificationException();
+            return expand();
+        } finally {
+            tree.exitGate();
+        }
+    }
+
+    // Replaces the nodes at the head by their entries until a point comes first
+    private boolean expand() {
+        while (!queue.isEmpty()) {
+            TreeNode node = queue.peekNode();
+            if (node == null) return true;
+            queue.poll();
+            if (node.isLeaf()) {
+                TreeLeafNode leaf = (TreeLeafNode) node;
+                for (int i = 0; i < leaf.getPointCount(); i++) {
+                    queue.addPoint(leaf.squaredDistance(i, point), leaf.getBlockId(i), leaf.getSlotId(i));
+                }
+            } else {
+                TreeInternalNode internal = (TreeInternalNode) node;
+                for (int i = 0; i < internal.getChildCount(); i++) {
+                    queue.addNode(internal.childMinDistanceSq(i, point), internal.getChild(i));
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+// kNN for many probe points at once. Probes are grouped into clusters of nearby points (runs
+// of the Hilbert order, or the tree's own leaves for the all-kNN self join) and every cluster
+// is searched with one best-first traversal: nodes are queued by their distance to the
+// cluster's box, and the search ends once the next node is farther than the k-th best
+// distance of every probe in the cluster. Clusters are independent tasks on the pool; each
+// writes only its own probes' results.
+final class NearestNeighborJoin {
+
+    private static final int CLUSTER_SIZE = 32; // probes per cluster in batch kNN
+
+    private NearestNeighborJoin() {}
+
+    // k nearest neighbours of each probe, closest first, in probe order
+    static List<List<TreeRecordID>> batch(TreeNode root, List<double[]> probes, int k, int dims, ForkJoinPool pool) {
+        int count = probes.size();
+        List<TreeRecordID>[] results = newResults(count);
+        if (count == 0 || k <= 0 || root.getMbr() == null) return fill(results);
+
+        double[] coords = new double[count * dims];
+        for (int i = 0; i < count; i++) System.arraycopy(probes.get(i), 0, coords, i * dims, dims);
+        int[] order = IndexSorter.identity(count);
+        IndexSorter.parallelSort(pool, order, 0, count, HilbertCurve.keys(coords, count, dims, pool), 1, 0);
+
+        int clusters = (count + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        Parallel.forRange(pool, 0, clusters, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                int start = c * CLUSTER_SIZE;
+                int end = Math.min(start + CLUSTER_SIZE, count);
+                double[][] cluster = new double[end - start][];
+                for (int j = start; j < end; j++) cluster[j - start] = probes.get(order[j]);
+                List<TreeRecordID>[] found = searchCluster(root, cluster, null, null, k, dims);
+                for (int j = start; j < end; j++) results[order[j]] = found[j - start];
+            }
+        });
+        return fill(results);
+    }
+
+    // k nearest other points of every point in the tree (all-kNN self join)
+    static Map<TreeRecordID, List<TreeRecordID>> selfJoin(TreeNode root, int k, int dims, ForkJoinPool pool) {
+        List<TreeLeafNode> leaves = new ArrayList<>();
+        collectLeaves(root, leaves);
+        List<TreeRecordID>[][] perLeaf = newResultsPerLeaf(leaves.size());
+        if (k > 0) {
+            Parallel.forRange(pool, 0, leaves.size(), 1, (from, to) -> {
+                for (int l = from; l < to; l++) {
+                    TreeLeafNode leaf = leaves.get(l);
+                    int n = leaf.getPointCount();
+                    double[][] cluster = new double[n][];
+                    int[] blocks = new int[n];
+                    int[] slots = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        cluster[i] = leaf.getPoint(i);
+                        blocks[i] = leaf.getBlockId(i);
+                        slots[i] = leaf.getSlotId(i);
+                    }
+                    perLeaf[l] = searchCluster(root, cluster, blocks, slots, k, dims);
+                }
+            });
+        }
+
+        Map<TreeRecordID, List<TreeRecordID>> joined = new HashMap<>();
+        for (int l = 0; l < leaves.size(); l++) {
+            TreeLeafNode leaf = leaves.get(l);
+            for (int i = 0; i < leaf.getPointCount(); i++) {
+                joined.put(leaf.getRecordID(i), perLeaf[l] == null ? new ArrayList<>() : perLeaf[l][i]);
+            }
+        }
+        return joined;
+    }
+
+    // Best-first search shared by a cluster of probes. A probe may exclude one record id (its
+    // own entry in a self join).
+    private static List<TreeRecordID>[] searchCluster(TreeNode root, double[][] probes, int[] excludeBlocks,
+                                                     int[] excludeSlots, int k, int dims) {
+        int m = probes.length;
+        double[] min = probes[0].clone();
+        double[] max = probes[0].clone();
+        for (double[] p : probes) {
+            for (int d = 0; d < dims; d++) {
+                if (p[d] < min[d]) min[d] = p[d];
+                if (p[d] > max[d]) max[d] = p[d];
+            }
+        }
+
+        DistanceQueue[] best = new DistanceQueue[m]; // per probe: best k so far, keys negated
+        for (int j = 0; j < m; j++) best[j] = new DistanceQueue(k + 1);
+        double bound = Double.POSITIVE_INFINITY; // largest k-th distance over the probes
+
+        DistanceQueue queue = new DistanceQueue(64);
+        MBR box = root.getMbr();
+        queue.addNode(MBR.minDistanceSq(box.getMin(), box.getMax(), 0, min, max, 0, dims), root);
+        while (!queue.isEmpty() && queue.peekKey() < bound) {
+            TreeNode node = queue.peekNode();
+            queue.poll();
+
+            if (!node.isLeaf()) {
+                TreeInternalNode internal = (TreeInternalNode) node;
+                for (int i = 0; i < internal.getChildCount(); i++) {
+                    double dist = internal.childMinDistanceSq(i, min, max);
+                    if (dist < bound) queue.addNode(dist, internal.getChild(i));
+                }
+                continue;
+            }
+
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            MBR leafBox = leaf.getMbr();
+            for (int j = 0; j < m; j++) {
+                DistanceQueue heap = best[j];
+                double[] probe = probes[j];
+                boolean full = heap.size() == k;
+                if (full && MBR.minDistanceSq(leafBox.getMin(), leafBox.getMax(), 0, probe, dims) >= -heap.peekKey()) {
+                    continue;
+                }
+                for (int i = 0; i < leaf.getPointCount(); i++) {
+                    if (excludeBlocks != null && leaf.getBlockId(i) == excludeBlocks[j]
+                            && leaf.getSlotId(i) == excludeSlots[j]) {
+                        continue;
+                    }
+                    double dist = leaf.squaredDistance(i, probe);
+                    if (heap.size() == k) {
+                        if (dist >= -heap.peekKey()) continue;
+                        heap.poll();
+                    }
+                    heap.addPoint(-dist, leaf.getBlockId(i), leaf.getSlotId(i));
+                }
+            }
+            bound = 0.0;
+            for (int j = 0; j < m && bound < Double.POSITIVE_INFINITY; j++) {
+                bound = best[j].size() < k ? Double.POSITIVE_INFINITY : Math.max(bound, -best[j].peekKey());
+            }
+        }
+
+        List<TreeRecordID>[] found = newResults(m);
+        for (int j = 0; j < m; j++) found[j] = best[j].drainReversed();
+        return found;
+    }
+
+    private static void collectLeaves(TreeNode node, List<TreeLeafNode> leaves) {
+        if (node.isLeaf()) {
+            if (node.getEntryCount() > 0) leaves.add((TreeLeafNode) node);
+            return;
+        }
+        for (TreeNode child : node.getChildren()) collectLeaves(child, leaves);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<TreeRecordID>[] newResults(int count) {
+        return (List<TreeRecordID>[]) new List[count];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<TreeRecordID>[][] newResultsPerLeaf(int count) {
+        return (List<TreeRecordID>[][]) new List[count][];
+    }
+
+    // Result lists in probe order (empty where nothing was searched)
+    private static List<List<TreeRecordID>> fill(List<TreeRecordID>[] results) {
+        List<List<TreeRecordID>> lists = new ArrayList<>(results.length);
+        for (List<TreeRecordID> found : results) lists.add(found == null ? new ArrayList<>() : found);
+        return lists;
+    }
+}
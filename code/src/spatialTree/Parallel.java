@@ -0,0 +1,57 @@
+package spatialTree;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Fork/join helpers shared by the parallel bulk loader and sorts; a null pool runs sequentially
+final class Parallel {
+
+    private Parallel() {}
+
+    // Work on [from, to) in chunks
+    interface RangeBody {
+        void run(int from, int to);
+    }
+
+    // Runs body over [from, to), splitting into halves down to `grain` items per task
+    static void forRange(ForkJoinPool pool, int from, int to, int grain, RangeBody body) {
+        if (pool == null || to - from <= grain) {
+            body.run(from, to);
+            return;
+        }
+        invoke(pool, new RangeTask(from, to, grain, body));
+    }
+
+    // Runs a task in the pool, or inline when already running inside it
+    static void invoke(ForkJoinPool pool, ForkJoinTask<?> task) {
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to, grain;
+        private final RangeBody body;
+
+        RangeTask(int from, int to, int grain, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+}
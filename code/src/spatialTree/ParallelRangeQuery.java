@@ -0,0 +1,98 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Range query split into fork/join tasks over subtrees. The expected number of matches is
+// estimated from the node counts; queries expected to match few points (or pools with a
+// single worker) take the sequential path. Each task collects into its own lists, which
+// are concatenated in child order at the end, so the result equals rangeQuery's.
+final class ParallelRangeQuery {
+
+    private static final double PARALLEL_THRESHOLD = 1 << 14; // estimated matches below which one thread searches
+    private static final double TASK_GRAIN = 1 << 12;         // smaller subtrees are searched inline by their parent task
+
+    private ParallelRangeQuery() {}
+
+    static List<TreeRecordID> run(TreeNode root, MBR query, ForkJoinPool pool) {
+        if (root.getMbr() == null || !root.getMbr().intersects(query)) return new ArrayList<>();
+        if (pool == null || pool.getParallelism() < 2 || root.isLeaf()
+                || estimate((TreeInternalNode) root, query) < PARALLEL_THRESHOLD) {
+            List<TreeRecordID> results = new ArrayList<>();
+            RStarTree.rangeQueryChildren(root, query, results);
+            return results;
+        }
+        RangeTask task = new RangeTask(root, query);
+        Parallel.invoke(pool, task);
+        List<TreeRecordID> results = new ArrayList<>(task.size());
+        task.drainTo(results);
+        return results;
+    }
+
+    private static double estimate(TreeInternalNode node, MBR query) {
+        double sum = 0.0;
+        for (int i = 0; i < node.getChildCount(); i++) sum += node.estimateInside(i, query);
+        return sum;
+    }
+
+    // Searches the children of an internal node: large internal children become subtasks,
+    // runs of the others are searched inline into placeholder parts
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TreeNode node;   // null for a placeholder holding inline matches
+        private final MBR query;
+        private final List<RangeTask> parts = new ArrayList<>(); // in child order
+        private List<TreeRecordID> found;
+
+        RangeTask(TreeNode node, MBR query) {
+            this.node = node;
+            this.query = query;
+        }
+
+        @Override
+        protected void compute() {
+            TreeInternalNode internal = (TreeInternalNode) node;
+            int count = internal.getChildCount();
+
+            // Fork the large subtrees first, so they run while the small ones are searched here
+            RangeTask[] partOf = new RangeTask[count];
+            List<RangeTask> forked = new ArrayList<>();
+            RangeTask inline = null;
+            for (int i = 0; i < count; i++) {
+                if (!internal.childIntersects(i, query)) continue;
+                TreeNode child = internal.getChild(i);
+                if (!child.isLeaf() && internal.estimateInside(i, query) >= TASK_GRAIN) {
+                    RangeTask task = new RangeTask(child, query);
+                    parts.add(task);
+                    forked.add(task);
+                    task.fork();
+                    inline = null;
+                } else {
+                    if (inline == null) {
+                        inline = new RangeTask(null, query);
+                        inline.found = new ArrayList<>();
+                        parts.add(inline);
+                    }
+                    partOf[i] = inline;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                if (partOf[i] != null) RStarTree.rangeQueryChildren(internal.getChild(i), query, partOf[i].found);
+            }
+            for (int i = forked.size() - 1; i >= 0; i--) forked.get(i).join();
+        }
+
+        int size() {
+            int size = found == null ? 0 : found.size();
+            for (RangeTask part : parts) size += part.size();
+            return size;
+        }
+
+        void drainTo(List<TreeRecordID> results) {
+            if (found != null) results.addAll(found);
+            for (RangeTask part : parts) part.drainTo(results);
+        }
+    }
+}
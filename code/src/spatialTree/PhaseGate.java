@@ -0,0 +1,49 @@
+package spatialTree;
+
+// Admits any number of threads of one group at a time; groups take turns.
+// Used by trees with concurrent writers: inserters share the tree with each other
+// (node latches keep them apart), queries share it with each other, and both
+// groups exclude one another. EXCLUSIVE admits a single thread (e.g. delete).
+final class PhaseGate {
+
+    static final int READ = 0;
+    static final int INSERT = 1;
+    static final int EXCLUSIVE = 2;
+
+    private int activeGroup = -1;
+    private int activeCount;
+    private final int[] waiting = new int[3];
+
+    synchronized void enter(int group) {
+        boolean interrupted = false;
+        waiting[group]++;
+        while (!canEnter(group)) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        waiting[group]--;
+        activeGroup = group;
+        activeCount++;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    synchronized void exit() {
+        if (--activeCount == 0) {
+            activeGroup = -1;
+            notifyAll();
+        }
+    }
+
+    // A running group keeps admitting its own threads only while no other group waits
+    private boolean canEnter(int group) {
+        if (activeCount == 0) return true;
+        if (activeGroup != group || group == EXCLUSIVE) return false;
+        for (int g = 0; g < waiting.length; g++) {
+            if (g != group && waiting[g] > 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package spatialTree;
+
+// R* split of an overflowing node, computed over packed boxes without building candidate nodes.
+// ChooseSplitAxis: for every axis, sort by lower and by upper bounds and sum the margins of all
+// legal distributions; the axis with the smallest sum wins. ChooseSplitIndex: on that axis, take
+// the distribution with the least overlap, ties resolved by least total area.
+// Candidate boxes come from prefix/suffix sweeps, so each axis costs O(n log n + n * dims).
+final class RStarSplit {
+
+    // Fraction of the entries each side must keep at least
+    static final double MIN_FILL = 0.4;
+
+    // Entry order of the winning sort; order[0, splitIndex) stays, order[splitIndex, n) moves
+    final int[] order;
+    final int splitIndex;
+
+    private RStarSplit(int[] order, int splitIndex) {
+        this.order = order;
+        this.splitIndex = splitIndex;
+    }
+
+    // Splits n boxes read from min/max (stride dims); for points pass the same array twice
+    static RStarSplit compute(double[] min, double[] max, int n, int dims) {
+        int minSplit = Math.max(1, (int) Math.ceil(MIN_FILL * n));
+        int maxSplit = n - minSplit;
+        if (maxSplit < minSplit) {
+            minSplit = n / 2;
+            maxSplit = minSplit;
+        }
+
+        double[] prefMin = new double[n * dims], prefMax = new double[n * dims];
+        double[] sufMin = new double[n * dims], sufMax = new double[n * dims];
+
+        // Two sorted orders per axis: [2 * axis] by lower bound, [2 * axis + 1] by upper bound
+        int[][] orders = new int[2 * dims][];
+        int bestAxis = 0;
+        double bestMarginSum = Double.MAX_VALUE;
+
+        for (int axis = 0; axis < dims; axis++) {
+            double marginSum = 0.0;
+            for (int side = 0; side < 2; side++) {
+                int[] order = IndexSorter.identity(n);
+                IndexSorter.sort(order, 0, n, side == 0 ? min : max, dims, axis);
+                orders[2 * axis + side] = order;
+
+                sweep(min, max, order, n, dims, prefMin, prefMax, sufMin, sufMax);
+                for (int k = minSplit; k <= maxSplit; k++) {
+                    marginSum += MBR.margin(prefMin, prefMax, (k - 1) * dims, dims)
+                            + MBR.margin(sufMin, sufMax, k * dims, dims);
+                }
+            }
+            if (marginSum < bestMarginSum) {
+                bestMarginSum = marginSum;
+                bestAxis = axis;
+            }
+        }
+
+        int[] bestOrder = orders[2 * bestAxis];
+        int bestK = minSplit;
+        double minOverlap = Double.MAX_VALUE;
+        double minArea = Double.MAX_VALUE;
+
+        for (int side = 0; side < 2; side++) {
+            int[] order = orders[2 * bestAxis + side];
+            sweep(min, max, order, n, dims, prefMin, prefMax, sufMin, sufMax);
+            for (int k = minSplit; k <= maxSplit; k++) {
+                int left = (k - 1) * dims, right = k * dims;
+                double overlap = MBR.overlap(prefMin, prefMax, left, sufMin, sufMax, right, dims);
+                if (overlap > minOverlap) continue;
+                double area = MBR.area(prefMin, prefMax, left, dims) + MBR.area(sufMin, sufMax, right, dims);
+                if (overlap < minOverlap || area < minArea) {
+                    minOverlap = overlap;
+                    minArea = area;
+                    bestOrder = order;
+                    bestK = k;
+                }
+            }
+        }
+        return new RStarSplit(bestOrder, bestK);
+    }
+
+    // prefix[i] = bounds of order[0..i], suffix[i] = bounds of order[i..n-1]
+    private static void sweep(double[] min, double[] max, int[] order, int n, int dims,
+                              double[] prefMin, double[] prefMax, double[] sufMin, double[] sufMax) {
+        System.arraycopy(min, order[0] * dims, prefMin, 0, dims);
+        System.arraycopy(max, order[0] * dims, prefMax, 0, dims);
+        for (int i = 1; i < n; i++) {
+            int src = order[i] * dims, prev = (i - 1) * dims, cur = i * dims;
+            for (int d = 0; d < dims; d++) {
+                prefMin[cur + d] = Math.min(prefMin[prev + d], min[src + d]);
+                prefMax[cur + d] = Math.max(prefMax[prev + d], max[src + d]);
+            }
+        }
+
+        int last = (n - 1) * dims;
+        System.arraycopy(min, order[n - 1] * dims, sufMin, last, dims);
+        System.arraycopy(max, order[n - 1] * dims, sufMax, last, dims);
+        for (int i = n - 2; i >= 0; i--) {
+            int src = order[i] * dims, next = (i + 1) * dims, cur = i * dims;
+            for (int d = 0; d < dims; d++) {
+                sufMin[cur + d] = Math.min(sufMin[next + d], min[src + d]);
+                sufMax[cur + d] = Math.max(sufMax[next + d], max[src + d]);
+            }
+        }
+    }
+}
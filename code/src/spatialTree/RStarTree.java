@@ -1,96 +1,783 @@
 package spatialTree;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
 
 // Handles the R*-tree root, insertion, deletion, splits, and queries
 public class RStarTree {
 
-    TreeNode root;
+    private volatile TreeNode root; // owned by this tree only, so several indexes can share a JVM
     private final int maxEntries;
+    private final int minEntries; // R* minimum fill; emptier nodes are dissolved on delete
     public final int dimensions;
 
-    static TreeNode globalRoot;
+    private static final double REINSERT_FRACTION = 0.3;
+    // insertAll grafts batch nodes up to this many times the tree's average node area at their
+    // level (a batch sparser than the tree makes larger nodes that still overlap only a few)
+    private static final double GRAFT_AREA_FACTOR = 8.0;
+
+    // Levels (bit per level, 0 = leaves) that already had an OverflowTreatment during the current insert
+    private long treatedLevels;
+
+    // Copy-on-write mode: a write copies every node it touches on the root-to-leaf path and
+    // publishes the new root at the end, so queries read an immutable snapshot without locks.
+    // Nodes from earlier writes are never changed, parent links included: published nodes
+    // have none (getParent() is null). Writes must come from one thread at a time.
+    private final boolean copyOnWrite;
+    private final boolean readOnly;     // true for views returned by snapshot()
+    private long writeEpoch;            // id of the current write, stamped on the nodes it copies
+    private volatile TreeNode published; // root seen by queries (last completed write)
+    private volatile long version;       // bumped by every write, lets cursors fail fast
+
+    // Concurrent mode: inserts from several threads run at once, coupling node latches
+    // top-down and releasing the ancestors as soon as a child cannot overflow. Queries and
+    // deletes take turns with the inserters through the gate (null in the other modes).
+    private final PhaseGate gate;
+
+    // Unique per instance: joins take the gates of two trees in this order
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private final long id = NEXT_ID.getAndIncrement();
+
+    // Record id -> leaf holding it, kept only after enableRecordIndex() (for update by id)
+    private Map<TreeRecordID, TreeLeafNode> leafIndex;
+
+    // Skyline kept current by the writes, only after enableSkylineIndex()
+    private SkylineIndex skylineIndex;
+
+    // How the tree may be written
+    public enum WriteMode {
+        SINGLE,        // one writer, queries not concurrent with writes
+        COPY_ON_WRITE, // one writer, lock-free snapshot queries
+        CONCURRENT     // many inserting threads
+    }
 
     public RStarTree(int maxEntries, int dimensions) {
+        this(maxEntries, dimensions, WriteMode.SINGLE);
+    }
+
+    public RStarTree(int maxEntries, int dimensions, boolean copyOnWrite) {
+        this(maxEntries, dimensions, copyOnWrite ? WriteMode.COPY_ON_WRITE : WriteMode.SINGLE);
+    }
+
+    public RStarTree(int maxEntries, int dimensions, WriteMode mode) {
         this.maxEntries = maxEntries;
+        this.minEntries = minEntries(maxEntries);
         this.dimensions = dimensions;
-        this.root = new TreeLeafNode(); // initial leaf
+        this.copyOnWrite = mode == WriteMode.COPY_ON_WRITE;
+        this.readOnly = false;
+        this.gate = mode == WriteMode.CONCURRENT ? new PhaseGate() : null;
+        this.root = new TreeLeafNode(dimensions); // initial leaf
+        attachLatch(root);
+        this.published = root;
+    }
+
+    // Read-only view over a published root
+    private RStarTree(RStarTree source, TreeNode snapshotRoot) {
+        this.maxEntries = source.maxEntries;
+        this.minEntries = source.minEntries;
+        this.dimensions = source.dimensions;
+        this.copyOnWrite = true;
+        this.readOnly = true;
+        this.gate = null;
+        this.root = snapshotRoot;
+        this.published = snapshotRoot;
+    }
+
+    private static int minEntries(int maxEntries) {
+        return Math.max(1, (int) Math.ceil(RStarSplit.MIN_FILL * maxEntries));
+    }
+
+    // Returns an immutable view of the current contents; later writes do not affect it. Its
+    // nodes have no parent links, so walk it from getRoot() down.
+    public RStarTree snapshot() {
+        if (!copyOnWrite) {
+            throw new IllegalStateException("Snapshots need a tree created in copy-on-write mode.");
+        }
+        return new RStarTree(this, published);
+    }
+
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    // Starts a write: in copy-on-write mode the working root becomes a private copy
+    private void beginWrite() {
+        checkWritable();
+        version++;
+        treatedLevels = 0;
+        if (copyOnWrite) {
+            writeEpoch++;
+            root = root.copyForWrite(writeEpoch);
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("RStarTree snapshots are read-only.");
+        }
+    }
+
+    // Makes the finished write visible to queries
+    private void publish() {
+        if (copyOnWrite) unlinkWritten(root);
+        published = root;
+        if (copyOnWrite && skylineIndex != null) skylineIndex.publish();
+    }
+
+    // Clears the parent links of the nodes this write created (copy-on-write). Published
+    // nodes are shared by later versions and have none: a link would keep an old version
+    // alive, or point into a newer one. Writes link the copies they make on the way down.
+    private void unlinkWritten(TreeNode node) {
+        node.setParent(null);
+        for (TreeNode child : node.getChildren()) {
+            if (child.epoch == writeEpoch) unlinkWritten(child);
+        }
+    }
+
+    // Hands the nodes of a subtree built outside the tree to the current write, so that it
+    // links and unlinks them like its own copies
+    private void claim(TreeNode node) {
+        node.epoch = writeEpoch;
+        for (TreeNode child : node.getChildren()) claim(child);
+    }
+
+    // Admits the calling thread into a gate group (no-op unless the tree is concurrent)
+    void enterGate(int group) {
+        if (gate != null) gate.enter(group);
+    }
+
+    void exitGate() {
+        if (gate != null) gate.exit();
+    }
+
+    // Gives a node its latch when the tree is concurrent
+    private void attachLatch(TreeNode node) {
+        if (gate != null) node.latch = new ReentrantLock();
     }
 
     // Insert a point with its record ID
     public void insert(double[] point, TreeRecordID rid) {
-        root.insert(point, rid, maxEntries);
+        if (gate != null) {
+            insertConcurrent(point, rid.getBlockId(), rid.getSlotId());
+            return;
+        }
+        beginWrite();
+        insertPoint(point, rid.getBlockId(), rid.getSlotId());
+        skylineAdded(point, rid.getBlockId(), rid.getSlotId());
+        publish();
+    }
 
-        // Split root if needed
-        while (needsSplit(getRoot())) {
-            TreeNode sibling = splitRoot(getRoot());
-            TreeInternalNode newRoot = new TreeInternalNode();
-            newRoot.addChild(getRoot());
-            newRoot.addChild(sibling);
+    // Descends to a leaf (growing boxes top-down on the way) and adds the point there
+    private void insertPoint(double[] point, int blockId, int slotId) {
+        TreeNode node = root;
+        while (!node.isLeaf()) {
+            node = ((TreeInternalNode) node).descend(point, point, 1, point, writeEpoch);
+        }
+        TreeLeafNode leaf = (TreeLeafNode) node;
+        leaf.addEntry(point, blockId, slotId);
+        indexRecord(blockId, slotId, leaf);
+        overflowTreatment(leaf);
+    }
 
-            getRoot().setParent(newRoot);
-            sibling.setParent(newRoot);
-            root = newRoot;
-            globalRoot = newRoot;
+    // Latch crabbing: every node on the path is latched before it is changed (descend grows
+    // its boxes). Once a child has room for one more entry no split can reach above it, so
+    // the latches still held on its ancestors are released. An overflow then splits upwards
+    // only through nodes this thread holds, up to and including a root promotion.
+    private void insertConcurrent(double[] point, int blockId, int slotId) {
+        enterGate(PhaseGate.INSERT);
+        version++; // racy between inserters, but any write still changes it
+        List<TreeNode> held = new ArrayList<>();
+        try {
+            TreeNode node = latchRoot();
+            held.add(node);
+            while (!node.isLeaf()) {
+                TreeNode child = ((TreeInternalNode) node).descend(point, point, 1, point, writeEpoch);
+                child.latch.lock();
+                if (child.getEntryCount() < maxEntries) unlatchAll(held);
+                held.add(child);
+                node = child;
+            }
+            ((TreeLeafNode) node).addEntry(point, blockId, slotId);
+            indexRecord(blockId, slotId, (TreeLeafNode) node);
+            skylineAdded(point, blockId, slotId);
+            overflowTreatment(node);
+        } finally {
+            unlatchAll(held);
+            exitGate();
+        }
+    }
+
+    // Latches the current root, retrying if another insert replaced it in the meantime
+    private TreeNode latchRoot() {
+        while (true) {
+            TreeNode node = root;
+            node.latch.lock();
+            if (node == root) return node;
+            node.latch.unlock();
+        }
+    }
+
+    private static void unlatchAll(List<TreeNode> held) {
+        for (TreeNode node : held) node.latch.unlock();
+        held.clear();
+    }
+
+    // Hangs a whole subtree back into a node one level above it
+    private void insertSubtree(TreeNode subtree) {
+        double[] min = subtree.getMbr().getMin();
+        double[] max = subtree.getMbr().getMax();
+        TreeNode node = root;
+        while (node.getLevel() > subtree.getLevel() + 1) {
+            node = ((TreeInternalNode) node).descend(min, max, subtree.getSubtreeCount(), subtree.sums, writeEpoch);
+        }
+        TreeInternalNode target = (TreeInternalNode) node;
+        target.addChild(subtree);
+        overflowTreatment(target);
+    }
+
+    // R* OverflowTreatment: the first overflow on a non-root level during one insert
+    // reinserts entries at that level, any further overflow splits (propagating upwards).
+    // Concurrent trees always split: a reinsert would need latches outside the held path.
+    private void overflowTreatment(TreeNode node) {
+        while (node.getEntryCount() > maxEntries) {
+            int level = node.getLevel();
+            if (gate == null && node.getParent() != null && (treatedLevels & (1L << level)) == 0) {
+                treatedLevels |= 1L << level;
+                reinsert(node);
+                return;
+            }
+
+            TreeNode sibling = split(node);
+            sibling.epoch = writeEpoch;
+            attachLatch(sibling);
+            if (sibling.isLeaf()) indexSubtree(sibling);
+            if (node.getParent() == null) {
+                growRoot(node, sibling);
+                return;
+            }
+            TreeInternalNode parent = (TreeInternalNode) node.getParent();
+            parent.addSiblingAfterSplit(node, sibling);
+            node = parent;
         }
     }
 
-    // Checks if a node needs to split
-    private boolean needsSplit(TreeNode node) {
-        if (node instanceof TreeLeafNode) {
-            return ((TreeLeafNode) node).getPointCount() > maxEntries;
-        } else if (node instanceof TreeInternalNode) {
-            return ((TreeInternalNode) node).getChildren().size() > maxEntries;
+    // Removes 30% of the node's entries and inserts them again at the same level
+    private void reinsert(TreeNode node) {
+        int count = (int) (REINSERT_FRACTION * node.getEntryCount());
+
+        if (node.isLeaf()) {
+            TreeLeafNode removed = ((TreeLeafNode) node).removeFarthestEntries(count);
+            tightenPath(node);
+            for (int i = 0; i < removed.getPointCount(); i++) {
+                insertPoint(removed.getPoint(i), removed.getBlockId(i), removed.getSlotId(i));
+            }
+        } else {
+            List<TreeNode> removed = ((TreeInternalNode) node).removeFarthestChildren(count);
+            tightenPath(node);
+            for (TreeNode subtree : removed) {
+                insertSubtree(subtree);
+            }
         }
-        return false;
     }
 
-    // Splits the root node and returns the new sibling
-    private TreeNode splitRoot(TreeNode node) {
-        if (node instanceof TreeLeafNode) {
+    // Propagates a shrunken MBR from node up to the root
+    private void tightenPath(TreeNode node) {
+        for (TreeNode n = node; n.getParent() != null; n = n.getParent()) {
+            ((TreeInternalNode) n.getParent()).childShrunk(n);
+        }
+    }
+
+    // Splits a node and returns the new sibling
+    private TreeNode split(TreeNode node) {
+        if (node.isLeaf()) {
             return ((TreeLeafNode) node).rstarSplit();
-        } else if (node instanceof TreeInternalNode) {
-            return ((TreeInternalNode) node).rstarSplit();
         }
-        return null;
+        return ((TreeInternalNode) node).rstarSplit();
     }
 
-    // Promotes two nodes to a new root
-    public static void promoteRoot(TreeNode left, TreeNode right) {
-        TreeInternalNode newRoot = new TreeInternalNode();
+    // Promotes the split root and its sibling under a new root
+    private void growRoot(TreeNode left, TreeNode right) {
+        TreeInternalNode newRoot = new TreeInternalNode(dimensions);
+        newRoot.epoch = writeEpoch;
         newRoot.addChild(left);
         newRoot.addChild(right);
-        left.setParent(newRoot);
-        right.setParent(newRoot);
-        globalRoot = newRoot;
+        attachLatch(newRoot);
+        root = newRoot;
+        if (gate != null) publish(); // concurrent inserts have no single end to publish at
     }
 
+    // Returns the root of the latest published version
     public TreeNode getRoot() {
-        return globalRoot != null ? globalRoot : root;
+        return published;
+    }
+
+    // Installs a prebuilt node (e.g. from bulk loading) as this tree's root
+    void setRoot(TreeNode newRoot) {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            version++;
+            newRoot.setParent(null);
+            attachLatches(newRoot);
+            if (copyOnWrite) claim(newRoot);
+            root = newRoot;
+            if (leafIndex != null) {
+                leafIndex.clear();
+                indexSubtree(newRoot);
+            }
+            if (skylineIndex != null) skylineIndex.rebuild(newRoot);
+            publish();
+        } finally {
+            exitGate();
+        }
+    }
+
+    private void attachLatches(TreeNode node) {
+        if (gate == null) return;
+        attachLatch(node);
+        for (TreeNode child : node.getChildren()) attachLatches(child);
+    }
+
+    long version() {
+        return version;
     }
 
     public int getDimensions() {
         return dimensions;
     }
 
+    // Fewest entries a node other than the root keeps after splits and deletes
+    public int getMinEntries() {
+        return minEntries;
+    }
+
+    // ------------------ BATCH INSERTION ------------------
+
+    // Adds a batch of points (generalised bulk insertion): the batch is packed into a small
+    // STR tree whose subtrees are then grafted into this tree at their own height. A batch
+    // node is grafted whole when it is not much larger than this tree's average node at that
+    // level and no node of its subtree is under the minimum fill; otherwise its children are
+    // tried, and points of leaves that still don't fit are inserted one at a time.
+    public void insertAll(List<double[]> points, List<TreeRecordID> rids) {
+        if (points.isEmpty()) return;
+        RStarTree batch = TreeBulkLoader.bulkLoad(points, rids, maxEntries, dimensions, TreeBulkLoader.Method.STR, 1.0);
+        TreeNode batchRoot = batch.published;
+
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            beginWrite();
+            attachLatches(batchRoot);
+            if (copyOnWrite) claim(batchRoot);
+            if (root.isLeaf() && root.getEntryCount() == 0) {
+                batchRoot.setParent(null);
+                root = batchRoot;
+                indexSubtree(batchRoot);
+            } else {
+                graft(batchRoot, averageAreaPerLevel());
+            }
+            for (int i = 0; i < points.size(); i++) {
+                skylineAdded(points.get(i), rids.get(i).getBlockId(), rids.get(i).getSlotId());
+            }
+            publish();
+        } finally {
+            exitGate();
+        }
+    }
+
+    private void graft(TreeNode node, double[] averageArea) {
+        int level = node.getLevel();
+        if (level < averageArea.length && level < root.getLevel()
+                && node.getMbr().area() <= GRAFT_AREA_FACTOR * averageArea[level]
+                && filled(node)) {
+            treatedLevels = 0;
+            insertSubtree(node);
+            indexSubtree(node);
+            return;
+        }
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) {
+                treatedLevels = 0;
+                insertPoint(leaf.getPoint(i), leaf.getBlockId(i), leaf.getSlotId(i));
+            }
+            return;
+        }
+        for (TreeNode child : node.getChildren()) {
+            graft(child, averageArea);
+        }
+    }
+
+    // True if no node of the subtree has fewer than minEntries entries
+    private boolean filled(TreeNode node) {
+        if (node.getEntryCount() < minEntries) return false;
+        for (TreeNode child : node.getChildren()) {
+            if (!filled(child)) return false;
+        }
+        return true;
+    }
+
+    // Average MBR area of this tree's nodes, per level below the root
+    private double[] averageAreaPerLevel() {
+        int levels = root.getLevel();
+        double[] sum = new double[levels];
+        long[] count = new long[levels];
+        addAreas(root, sum, count);
+        for (int l = 0; l < levels; l++) {
+            if (count[l] > 0) sum[l] /= count[l];
+        }
+        return sum;
+    }
+
+    private static void addAreas(TreeNode node, double[] sum, long[] count) {
+        for (TreeNode child : node.getChildren()) {
+            sum[child.getLevel()] += child.getMbr().area();
+            count[child.getLevel()]++;
+            addAreas(child, sum, count);
+        }
+    }
+
     // ------------------ DELETION ------------------
 
-    // Delete a point from the tree
+    // Delete a point from the tree (exclusive in concurrent mode)
     public boolean delete(double[] point) {
-        boolean deleted = root.delete(point, maxEntries);
+        return delete(point, null);
+    }
+
+    // Deletes the entry with this point and record id (any entry at the point if rid is null)
+    public boolean delete(double[] point, TreeRecordID rid) {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            return deleteEntry(point, rid);
+        } finally {
+            exitGate();
+        }
+    }
+
+    private boolean deleteEntry(double[] point, TreeRecordID rid) {
+        checkWritable();
+        int[] path = new int[root.getLevel()];
+        int entry = findEntry(root, point, rid, path);
+        if (entry == -1) return false;
+
+        beginWrite();
+        TreeLeafNode leaf = (TreeLeafNode) writablePath(path);
+        unindexRecord(leaf.getBlockId(entry), leaf.getSlotId(entry));
+        skylineRemoved(leaf.getBlockId(entry), leaf.getSlotId(entry));
+        leaf.removeEntry(entry);
+        condenseTree(leaf);
+        repairSkyline();
+        publish();
+        return true;
+    }
+
+    // Finds a leaf entry equal to the point (and rid, if given); path[depth] receives the child
+    // index taken at each depth below the root. Returns the entry index, or -1 if there is none.
+    private int findEntry(TreeNode node, double[] point, TreeRecordID rid, int[] path) {
+        if (node.isLeaf()) {
+            return ((TreeLeafNode) node).indexOf(point, rid);
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        int depth = root.getLevel() - node.getLevel();
+        for (int i = 0; i < internal.getChildCount(); i++) {
+            if (!internal.childContains(i, point)) continue;
+            path[depth] = i;
+            int entry = findEntry(internal.getChild(i), point, rid, path);
+            if (entry != -1) return entry;
+        }
+        return -1;
+    }
+
+    // Follows child indices from the working root, copying the nodes in copy-on-write mode
+    private TreeNode writablePath(int[] path) {
+        TreeNode node = root;
+        for (int index : path) {
+            node = ((TreeInternalNode) node).writableChild(index, writeEpoch);
+        }
+        return node;
+    }
+
+    // CondenseTree: walks up from the node a delete changed. Nodes left under minimum fill are
+    // dissolved and their entries reinserted at their own level; the others have their boxes
+    // tightened. The root is shortened before the reinsertion.
+    private void condenseTree(TreeNode node) {
+        List<TreeNode> orphans = new ArrayList<>();
+        while (node.getParent() != null) {
+            TreeInternalNode parent = (TreeInternalNode) node.getParent();
+            if (node.getEntryCount() < minEntries) {
+                parent.removeChild(node);
+                if (node.getEntryCount() > 0) orphans.add(node);
+            } else {
+                parent.childShrunk(node);
+            }
+            node = parent;
+        }
+        shortenRoot();
+        reinsertOrphans(orphans);
+    }
+
+    // While the root has only one child, promote it; an empty internal root becomes a leaf
+    private void shortenRoot() {
+        while (!root.isLeaf() && root.getEntryCount() == 1) {
+            root = ((TreeInternalNode) root).writableChild(0, writeEpoch);
+            root.setParent(null);
+        }
+        if (root.getEntryCount() == 0 && !root.isLeaf()) {
+            TreeNode leaf = new TreeLeafNode(dimensions);
+            attachLatch(leaf);
+            root = leaf;
+        }
+    }
+
+    // Reinserts the entries of dissolved nodes, the highest nodes first
+    private void reinsertOrphans(List<TreeNode> orphans) {
+        for (int i = orphans.size() - 1; i >= 0; i--) {
+            TreeNode orphan = orphans.get(i);
+            if (orphan.isLeaf()) {
+                reinsertPoints((TreeLeafNode) orphan);
+            } else {
+                for (TreeNode child : orphan.getChildren()) reinsertSubtree(child);
+            }
+        }
+    }
+
+    // Hangs a subtree back at its own level; if the tree has become too short for that,
+    // its children (or, for a leaf, its points) are reinserted instead
+    private void reinsertSubtree(TreeNode subtree) {
+        if (subtree.getLevel() < root.getLevel()) {
+            treatedLevels = 0;
+            insertSubtree(subtree);
+        } else if (subtree.isLeaf()) {
+            reinsertPoints((TreeLeafNode) subtree);
+        } else {
+            for (TreeNode child : subtree.getChildren()) reinsertSubtree(child);
+        }
+    }
+
+    private void reinsertPoints(TreeLeafNode leaf) {
+        for (int i = 0; i < leaf.getPointCount(); i++) {
+            treatedLevels = 0;
+            insertPoint(leaf.getPoint(i), leaf.getBlockId(i), leaf.getSlotId(i));
+        }
+    }
+
+    // Deletes every point inside region; returns how many were removed
+    public int deleteAll(MBR region) {
+        return deleteIf(region, null);
+    }
+
+    // Deletes the points inside region that the filter accepts (all of them if it is null),
+    // in one traversal. Without a filter, subtrees lying inside region are dropped whole.
+    public int deleteIf(MBR region, BiPredicate<double[], TreeRecordID> filter) {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            checkWritable();
+            if (root.getMbr() == null || !root.getMbr().intersects(region)) return 0;
+
+            beginWrite();
+            if (skylineIndex != null && filter == null) skylineIndex.regionRemoved(region);
+            List<TreeNode> orphans = new ArrayList<>();
+            int removed = deleteBelow(root, region, filter, orphans);
+            shortenRoot();
+            reinsertOrphans(orphans);
+            repairSkyline();
+            publish();
+            return removed;
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Removes the matching entries under a writable node. Children left under minimum fill
+    // are taken out and collected in orphans (bottom-up) when they still hold entries.
+    private int deleteBelow(TreeNode node, MBR region, BiPredicate<double[], TreeRecordID> filter,
+                            List<TreeNode> orphans) {
+        if (node.isLeaf()) {
+            boolean track = leafIndex != null || (skylineIndex != null && filter != null);
+            List<TreeRecordID> removedIds = track ? new ArrayList<>() : null;
+            int removed = ((TreeLeafNode) node).removeIf(region, filter, removedIds);
+            if (removedIds != null) {
+                for (TreeRecordID rid : removedIds) {
+                    if (leafIndex != null) leafIndex.remove(rid);
+                    if (filter != null) skylineRemoved(rid.getBlockId(), rid.getSlotId());
+                }
+            }
+            return removed;
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        int removed = 0;
+        for (int i = internal.getChildCount() - 1; i >= 0; i--) {
+            if (!internal.childIntersects(i, region)) continue;
+            if (filter == null && internal.childWithin(i, region)) {
+                removed += (int) internal.getChild(i).getSubtreeCount();
+                unindexSubtree(internal.getChild(i));
+                internal.removeChildAt(i);
+                continue;
+            }
+            TreeNode child = internal.writableChild(i, writeEpoch);
+            int removedBelow = deleteBelow(child, region, filter, orphans);
+            if (removedBelow == 0) continue;
+            removed += removedBelow;
+            if (child.getEntryCount() < minEntries) {
+                internal.removeChildAt(i);
+                if (child.getEntryCount() > 0) orphans.add(child);
+            } else {
+                internal.childChanged(i);
+            }
+        }
+        if (removed > 0) internal.updateMBR();
+        return removed;
+    }
+
+    // ------------------ UPDATE ------------------
+
+    // Keeps a record id -> leaf map from now on, so update(rid, newPoint) can find an entry
+    // without a descent. Not available in copy-on-write mode, where writes replace leaves.
+    public void enableRecordIndex() {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            checkWritable();
+            if (copyOnWrite) {
+                throw new IllegalStateException("The record index is not available in copy-on-write mode.");
+            }
+            if (leafIndex != null) return;
+            leafIndex = gate != null ? new ConcurrentHashMap<>() : new HashMap<>();
+            indexSubtree(root);
+        } finally {
+            exitGate();
+        }
+    }
 
-        // If root has only one child, promote it
-        if (deleted && root instanceof TreeInternalNode) {
-            TreeInternalNode internal = (TreeInternalNode) root;
-            if (internal.getChildren().size() == 1) {
-                root = internal.getChildren().get(0);
-                root.setParent(null);
+    // Moves a record to a new position, locating it through the record index
+    public boolean update(TreeRecordID rid, double[] newPoint) {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            checkWritable();
+            if (leafIndex == null) {
+                throw new IllegalStateException("update(rid, newPoint) needs enableRecordIndex(); use update(rid, oldPoint, newPoint).");
             }
+            TreeLeafNode leaf = leafIndex.get(rid);
+            if (leaf == null) return false;
+            beginWrite();
+            moveEntry(leaf, leaf.indexOfRecord(rid.getBlockId(), rid.getSlotId()), newPoint);
+            repairSkyline();
+            publish();
+            return true;
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Moves a record from oldPoint to newPoint (any write mode, no record index needed)
+    public boolean update(TreeRecordID rid, double[] oldPoint, double[] newPoint) {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            checkWritable();
+            int[] path = new int[root.getLevel()];
+            int entry = findEntry(root, oldPoint, rid, path);
+            if (entry == -1) return false;
+            beginWrite();
+            moveEntry((TreeLeafNode) writablePath(path), entry, newPoint);
+            repairSkyline();
+            publish();
+            return true;
+        } finally {
+            exitGate();
         }
-        return deleted;
+    }
+
+    // Moves a (writable) leaf entry to newPoint: in place if the point stays inside the leaf's
+    // box, into a sibling leaf with room whose box covers it, otherwise by a delete and a
+    // reinsert from the root. Boxes are adjusted bottom-up through the parent pointers.
+    private void moveEntry(TreeLeafNode leaf, int entry, double[] newPoint) {
+        int blockId = leaf.getBlockId(entry);
+        int slotId = leaf.getSlotId(entry);
+        skylineRemoved(blockId, slotId);
+        skylineAdded(newPoint, blockId, slotId);
+
+        if (leaf.getMbr().contains(newPoint)) {
+            if (leaf.setPoint(entry, newPoint)) tightenUpwards(leaf);
+            return;
+        }
+
+        TreeInternalNode parent = (TreeInternalNode) leaf.getParent();
+        if (parent != null) {
+            for (int i = 0; i < parent.getChildCount(); i++) {
+                TreeNode sibling = parent.getChild(i);
+                if (sibling == leaf || sibling.getEntryCount() >= maxEntries || !parent.childContains(i, newPoint)) {
+                    continue;
+                }
+                TreeLeafNode target = (TreeLeafNode) parent.writableChild(i, writeEpoch);
+                target.addEntry(newPoint, blockId, slotId);
+                parent.childChanged(i);
+                indexRecord(blockId, slotId, target);
+                leaf.removeEntry(entry);
+                condenseTree(leaf);
+                return;
+            }
+        }
+
+        leaf.removeEntry(entry);
+        condenseTree(leaf);
+        treatedLevels = 0;
+        insertPoint(newPoint, blockId, slotId);
+    }
+
+    // Propagates a changed box and totals upwards, stopping at the first ancestor where
+    // neither changes
+    private void tightenUpwards(TreeNode node) {
+        for (TreeNode n = node; n.getParent() != null; n = n.getParent()) {
+            if (!((TreeInternalNode) n.getParent()).childShrunk(n)) return;
+        }
+    }
+
+    private void indexRecord(int blockId, int slotId, TreeLeafNode leaf) {
+        if (leafIndex != null) leafIndex.put(new TreeRecordID(blockId, slotId), leaf);
+    }
+
+    private void unindexRecord(int blockId, int slotId) {
+        if (leafIndex != null) leafIndex.remove(new TreeRecordID(blockId, slotId));
+    }
+
+    // Points every record under node at its current leaf
+    private void indexSubtree(TreeNode node) {
+        if (leafIndex == null) return;
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) leafIndex.put(leaf.getRecordID(i), leaf);
+        } else {
+            for (TreeNode child : node.getChildren()) indexSubtree(child);
+        }
+    }
+
+    private void unindexSubtree(TreeNode node) {
+        if (leafIndex == null) return;
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) leafIndex.remove(leaf.getRecordID(i));
+        } else {
+            for (TreeNode child : node.getChildren()) unindexSubtree(child);
+        }
+    }
+
+    // Keeps the skyline index, if any, in step with the write (see SkylineIndex)
+    private void skylineAdded(double[] point, int blockId, int slotId) {
+        if (skylineIndex != null) skylineIndex.pointAdded(point, blockId, slotId);
+    }
+
+    private void skylineRemoved(int blockId, int slotId) {
+        if (skylineIndex != null) skylineIndex.recordRemoved(blockId, slotId);
+    }
+
+    // Fills the gaps left by removed skyline points, once the write has reshaped the tree
+    private void repairSkyline() {
+        if (skylineIndex != null) skylineIndex.repair(root);
     }
 
     // ------------------ RANGE QUERY ------------------
@@ -98,113 +785,401 @@ public class RStarTree {
     // Returns all TreeRecordIDs inside the query MBR
     public List<TreeRecordID> rangeQuery(MBR query) {
         List<TreeRecordID> results = new ArrayList<>();
-        rangeQueryRecursive(root, query, results);
+        enterGate(PhaseGate.READ);
+        try {
+            rangeQueryRecursive(published, query, results);
+        } finally {
+            exitGate();
+        }
+        return results;
+    }
+
+    // Returns at most `limit` TreeRecordIDs inside the query MBR
+    public List<TreeRecordID> rangeQuery(MBR query, int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Result limit must not be negative: " + limit);
+        List<TreeRecordID> results = new ArrayList<>(Math.min(limit, 16));
+        RangeCursor cursor = rangeCursor(query).limit(limit);
+        while (cursor.hasNext()) results.add(cursor.next());
+        return results;
+    }
+
+    // True if any point lies inside the query MBR (stops at the first one)
+    public boolean exists(MBR query) {
+        return rangeCursor(query).hasNext();
+    }
+
+    // Lazy range query; see RangeCursor
+    public RangeCursor rangeCursor(MBR query) {
+        enterGate(PhaseGate.READ);
+        try {
+            return new RangeCursor(this, published, query.copy(), version, !copyOnWrite);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Resumes a range query from a token taken on one of this tree's cursors
+    public RangeCursor rangeCursor(RangeCursor.Token token) {
+        if (token.tree() != this) {
+            throw new IllegalArgumentException("Token belongs to another tree.");
+        }
+        enterGate(PhaseGate.READ);
+        try {
+            if (!token.current()) throw new ConcurrentModificationException("Tree changed since the token was taken.");
+            return new RangeCursor(this, token);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Same results as rangeQuery, in the same order; large queries search the subtrees as
+    // fork/join tasks on the common pool (see ParallelRangeQuery)
+    public List<TreeRecordID> parallelRangeQuery(MBR query) {
+        return parallelRangeQuery(query, ForkJoinPool.commonPool());
+    }
+
+    public List<TreeRecordID> parallelRangeQuery(MBR query, ForkJoinPool pool) {
+        enterGate(PhaseGate.READ);
+        try {
+            return ParallelRangeQuery.run(published, query, pool);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Runs many range queries (e.g. the tiles of one map view) in a single traversal: every
+    // node is visited once, carrying only the queries whose boxes intersect it. Returns the
+    // results of each query, in the order of the queries.
+    public List<List<TreeRecordID>> batchRangeQuery(List<MBR> queries) {
+        int n = queries.size();
+        List<List<TreeRecordID>> results = new ArrayList<>(n);
+        for (int q = 0; q < n; q++) results.add(new ArrayList<>());
+
+        // Query boxes packed like the child boxes, so they are tested without indirection
+        double[] qMin = new double[n * dimensions];
+        double[] qMax = new double[n * dimensions];
+        for (int q = 0; q < n; q++) {
+            System.arraycopy(queries.get(q).getMin(), 0, qMin, q * dimensions, dimensions);
+            System.arraycopy(queries.get(q).getMax(), 0, qMax, q * dimensions, dimensions);
+        }
+
+        enterGate(PhaseGate.READ);
+        try {
+            TreeNode node = published;
+            MBR box = node.getMbr();
+            if (box == null) return results;
+            // active[depth] lists the queries still open at that depth of the current path, in
+            // ascending order of their lower bound on dimension 0 (filtering keeps the order)
+            int[][] active = new int[node.getLevel() + 1][n];
+            int[] order = IndexSorter.identity(n);
+            IndexSorter.sort(order, 0, n, qMin, dimensions, 0);
+            int count = 0;
+            for (int q : order) {
+                if (MBR.intersects(box.getMin(), box.getMax(), 0, qMin, qMax, q * dimensions, dimensions)) {
+                    active[0][count++] = q;
+                }
+            }
+            if (count > 0) batchRangeChildren(node, qMin, qMax, active, 0, count, results);
+        } finally {
+            exitGate();
+        }
         return results;
     }
 
+    private void batchRangeChildren(TreeNode node, double[] qMin, double[] qMax, int[][] active, int depth,
+                                    int count, List<List<TreeRecordID>> results) {
+        int[] queries = active[depth];
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) {
+                double x = leaf.getCoordinate(i, 0);
+                for (int k = 0; k < count; k++) {
+                    int q = queries[k];
+                    if (qMin[q * dimensions] > x) break; // the remaining queries start further right
+                    if (leaf.isPointInside(i, qMin, qMax, q * dimensions)) results.get(q).add(leaf.getRecordID(i));
+                }
+            }
+            return;
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        int[] below = active[depth + 1];
+        for (int i = 0; i < internal.getChildCount(); i++) {
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                int q = queries[k];
+                if (internal.childIntersects(i, qMin, qMax, q * dimensions)) below[kept++] = q;
+            }
+            if (kept > 0) batchRangeChildren(internal.getChild(i), qMin, qMax, active, depth + 1, kept, results);
+        }
+    }
+
+    // Number of points inside the query MBR. Subtrees lying inside the query are counted
+    // from their parent's totals without being visited.
+    public long rangeCount(MBR query) {
+        return rangeAggregate(query).getCount();
+    }
+
+    // Count, and per-dimension sum / min / max, of the points inside the query MBR; answered
+    // from the node totals wherever a subtree lies inside the query
+    public RangeAggregate rangeAggregate(MBR query) {
+        RangeAggregate aggregate = new RangeAggregate(dimensions);
+        enterGate(PhaseGate.READ);
+        try {
+            TreeNode node = published;
+            if (node.getMbr() != null && node.getMbr().intersects(query)) {
+                aggregateChildren(node, query, aggregate);
+            }
+        } finally {
+            exitGate();
+        }
+        return aggregate;
+    }
+
+    private void aggregateChildren(TreeNode node, MBR query, RangeAggregate aggregate) {
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) {
+                if (leaf.isPointInside(i, query)) aggregate.addPoint(leaf, i);
+            }
+            return;
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        for (int i = 0; i < internal.getChildCount(); i++) {
+            if (!internal.childIntersects(i, query)) continue;
+            if (internal.childWithin(i, query)) {
+                internal.addChildTo(i, aggregate);
+            } else {
+                aggregateChildren(internal.getChild(i), query, aggregate);
+            }
+        }
+    }
+
     private void rangeQueryRecursive(TreeNode node, MBR query, List<TreeRecordID> results) {
-        if (!node.getMbr().intersects(query)) {
+        if (node.getMbr() == null || !node.getMbr().intersects(query)) {
             return;
         }
+        rangeQueryChildren(node, query, results);
+    }
+
+    // Children are filtered on the parent's packed boxes before they are visited
+    static void rangeQueryChildren(TreeNode node, MBR query, List<TreeRecordID> results) {
         if (node.isLeaf()) {
             TreeLeafNode leaf = (TreeLeafNode) node;
             for (int i = 0; i < leaf.getPointCount(); i++) {
-                double[] point = leaf.getPoint(i);
-                if (query.contains(point)) {
+                if (leaf.isPointInside(i, query)) {
                     results.add(leaf.getRecordID(i));
                 }
             }
         } else {
             TreeInternalNode internal = (TreeInternalNode) node;
-            for (TreeNode child : internal.getChildren()) {
-                rangeQueryRecursive(child, query, results);
+            for (int i = 0; i < internal.getChildCount(); i++) {
+                if (internal.childIntersects(i, query)) {
+                    rangeQueryChildren(internal.getChild(i), query, results);
+                }
             }
         }
     }
 
-    // Euclidean distance between two points
-    private double euclideanDistance(double[] a, double[] b) {
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double diff = a[i] - b[i];
-            sum += diff * diff;
+    // k-Nearest Neighbors search, closest first
+    public List<TreeRecordID> kNearestNeighbors(double[] queryPoint, int k) {
+        enterGate(PhaseGate.READ);
+        try {
+            return kNearestNeighbors(published, queryPoint, k);
+        } finally {
+            exitGate();
         }
-        return Math.sqrt(sum);
     }
 
-    // k-Nearest Neighbors search
-    public List<TreeRecordID> kNearestNeighbors(double[] queryPoint, int k) {
-        PriorityQueue<NodeDIstanceInfo> queue = new PriorityQueue<>();
-        PriorityQueue<TreeRecordIDWithDistance> bestK = new PriorityQueue<>(k);
+    // Best-first search on squared distances: nodes are expanded closest box first, children
+    // no closer than the current k-th best point are never queued, and the search stops once
+    // the closest queued box is no closer than the k-th best point
+    private List<TreeRecordID> kNearestNeighbors(TreeNode snapshot, double[] queryPoint, int k) {
+        MBR box = snapshot.getMbr();
+        if (k <= 0 || box == null) return new ArrayList<>();
 
-        queue.add(new NodeDIstanceInfo(root, root.getMbr().minDistance(queryPoint)));
+        DistanceQueue queue = new DistanceQueue(64);
+        DistanceQueue best = new DistanceQueue(k + 1); // the best k so far, keys negated (farthest at the head)
+        queue.addNode(MBR.minDistanceSq(box.getMin(), box.getMax(), 0, queryPoint, dimensions), snapshot);
 
         while (!queue.isEmpty()) {
-            NodeDIstanceInfo nd = queue.poll();
-            TreeNode node = nd.node;
+            if (best.size() == k && queue.peekKey() >= -best.peekKey()) break;
+            TreeNode node = queue.peekNode();
+            queue.poll();
 
             if (node.isLeaf()) {
                 TreeLeafNode leaf = (TreeLeafNode) node;
                 for (int i = 0; i < leaf.getPointCount(); i++) {
-                    double dist = euclideanDistance(queryPoint, leaf.getPoint(i));
-                    bestK.add(new TreeRecordIDWithDistance(leaf.getRecordID(i), dist));
-                    if (bestK.size() > k) {
-                        bestK.poll();
+                    double dist = leaf.squaredDistance(i, queryPoint);
+                    if (best.size() == k) {
+                        if (dist >= -best.peekKey()) continue;
+                        best.poll();
                     }
+                    best.addPoint(-dist, leaf.getBlockId(i), leaf.getSlotId(i));
                 }
             } else {
-                for (TreeNode child : node.getChildren()) {
-                    double childDist = child.getMbr().minDistance(queryPoint);
-                    queue.add(new NodeDIstanceInfo(child, childDist));
+                TreeInternalNode internal = (TreeInternalNode) node;
+                for (int i = 0; i < internal.getChildCount(); i++) {
+                    double childDist = internal.childMinDistanceSq(i, queryPoint);
+                    if (best.size() < k || childDist < -best.peekKey()) {
+                        queue.addNode(childDist, internal.getChild(i));
+                    }
                 }
             }
         }
 
-        // Sort results by distance (closest first)
-        List<TreeRecordIDWithDistance> tmpList = new ArrayList<>(bestK);
-        tmpList.sort(Comparator.comparingDouble(r -> r.distance));
-        List<TreeRecordID> result = new ArrayList<>();
-        for (TreeRecordIDWithDistance r : tmpList) result.add(r.recordID);
-        return result;
+        return best.drainReversed();
+    }
+
+    // Incremental nearest neighbours ("next nearest"); see NearestNeighborCursor
+    public NearestNeighborCursor nearestNeighborCursor(double[] queryPoint) {
+        enterGate(PhaseGate.READ);
+        try {
+            return new NearestNeighborCursor(this, published, queryPoint.clone(), version, !copyOnWrite);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // Reverse kNN: the points that would have queryPoint among their k nearest neighbours
+    // (fewer than k other points strictly closer to them); see ReverseNearestNeighbors
+    public List<TreeRecordID> reverseKNearestNeighbors(double[] queryPoint, int k) {
+        enterGate(PhaseGate.READ);
+        try {
+            return ReverseNearestNeighbors.query(published, queryPoint, k, dimensions);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // kNN for many probe points at once (e.g. map-matching), clusters of nearby probes sharing
+    // one traversal, in parallel on the common pool; results in probe order, closest first
+    public List<List<TreeRecordID>> batchKNearestNeighbors(List<double[]> probes, int k) {
+        return batchKNearestNeighbors(probes, k, ForkJoinPool.commonPool());
+    }
+
+    public List<List<TreeRecordID>> batchKNearestNeighbors(List<double[]> probes, int k, ForkJoinPool pool) {
+        enterGate(PhaseGate.READ);
+        try {
+            return NearestNeighborJoin.batch(published, probes, k, dimensions, pool);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // All-kNN self join: the k nearest other points of every point in the tree, each leaf's
+    // points searched together
+    public Map<TreeRecordID, List<TreeRecordID>> allKNearestNeighbors(int k) {
+        return allKNearestNeighbors(k, ForkJoinPool.commonPool());
+    }
+
+    public Map<TreeRecordID, List<TreeRecordID>> allKNearestNeighbors(int k, ForkJoinPool pool) {
+        enterGate(PhaseGate.READ);
+        try {
+            return NearestNeighborJoin.selfJoin(published, k, dimensions, pool);
+        } finally {
+            exitGate();
+        }
+    }
+
+    // ------------------ SPATIAL JOIN ------------------
+
+    // Pairs (record of this tree, record of other) whose points coincide
+    public List<TreeRecordIDPair> intersectionJoin(RStarTree other) {
+        return join(other, 0.0, false, null);
+    }
+
+    // Pairs whose points differ by at most halfSide on every dimension, i.e. the other point
+    // lies in the box of half side halfSide around this one (null pool: on this thread)
+    public List<TreeRecordIDPair> boxJoin(RStarTree other, double halfSide, ForkJoinPool pool) {
+        return join(other, halfSide, false, pool);
+    }
+
+    // Pairs whose points lie within Euclidean distance epsilon (null pool: on this thread)
+    public List<TreeRecordIDPair> distanceJoin(RStarTree other, double epsilon, ForkJoinPool pool) {
+        return join(other, epsilon, true, pool);
+    }
+
+    // Reads both trees under their READ gates, taken in order of tree id so that two joins of
+    // the same trees in opposite directions cannot wait on each other; see SpatialJoin
+    private List<TreeRecordIDPair> join(RStarTree other, double epsilon, boolean euclidean, ForkJoinPool pool) {
+        if (other.dimensions != dimensions) {
+            throw new IllegalArgumentException("Cannot join trees of " + dimensions + " and " + other.dimensions
+                    + " dimensions.");
+        }
+        if (epsilon < 0.0) throw new IllegalArgumentException("Join distance must not be negative: " + epsilon);
+        RStarTree first = this, second = other;
+        if (other.id < id) {
+            first = other;
+            second = this;
+        }
+        first.enterGate(PhaseGate.READ);
+        try {
+            if (second != first) second.enterGate(PhaseGate.READ);
+            try {
+                return SpatialJoin.run(published, other.published, dimensions, epsilon, euclidean, pool);
+            } finally {
+                if (second != first) second.exitGate();
+            }
+        } finally {
+            first.exitGate();
+        }
     }
 
     // ==================== SKYLINE QUERY ====================
 
-    // Returns the skyline points' record IDs
+    // Returns the skyline points' record IDs (branch-and-bound, see Skyline)
     public List<TreeRecordID> skylineQuery() {
-        List<double[]> points = getAllPoints();
-        List<TreeRecordID> recordIDs = getAllRecordIDs();
-        List<TreeRecordID> skyline = new ArrayList<>();
-
-        for (int i = 0; i < points.size(); i++) {
-            boolean dominated = false;
-            for (int j = 0; j < points.size(); j++) {
-                if (i != j && dominates(points.get(j), points.get(i))) {
-                    dominated = true;
-                    break;
-                }
-            }
-            if (!dominated) {
-                skyline.add(recordIDs.get(i));
-            }
+        return skylineQuery(null);
+    }
+
+    // Constrained skyline: the points inside region that no other point inside it dominates
+    public List<TreeRecordID> skylineQuery(MBR region) {
+        enterGate(PhaseGate.READ);
+        try {
+            return Skyline.compute(published, dimensions, region);
+        } finally {
+            exitGate();
         }
-        return skyline;
     }
 
-    // Returns true if a dominates b
-    private boolean dominates(double[] a, double[] b) {
-        boolean strictlyBetter = false;
-        for (int d = 0; d < a.length; d++) {
-            if (a[d] > b[d]) return false;
-            if (a[d] < b[d]) strictlyBetter = true;
+    // Keeps the skyline current from now on: inserts cost one pass over the skyline, and
+    // deleting a skyline point searches only the region it dominated
+    public void enableSkylineIndex() {
+        enterGate(PhaseGate.EXCLUSIVE);
+        try {
+            checkWritable();
+            if (skylineIndex != null) return;
+            skylineIndex = new SkylineIndex(dimensions);
+            skylineIndex.rebuild(root);
+            skylineIndex.publish();
+        } finally {
+            exitGate();
+        }
+    }
+
+    // The skyline as maintained since enableSkylineIndex()
+    public List<TreeRecordID> indexedSkyline() {
+        enterGate(PhaseGate.READ);
+        try {
+            if (skylineIndex == null) {
+                throw new IllegalStateException("indexedSkyline() needs enableSkylineIndex(); use skylineQuery().");
+            }
+            // Copy-on-write readers don't wait for the writer, so they get the last published list
+            return copyOnWrite ? new ArrayList<>(skylineIndex.published()) : skylineIndex.toList();
+        } finally {
+            exitGate();
         }
-        return strictlyBetter;
     }
 
     // Gathers all points (coordinates) from the tree
     public List<double[]> getAllPoints() {
         List<double[]> result = new ArrayList<>();
-        getAllPointsRecursive(root, result);
+        enterGate(PhaseGate.READ);
+        try {
+            getAllPointsRecursive(published, result);
+        } finally {
+            exitGate();
+        }
         return result;
     }
 
@@ -225,7 +1200,12 @@ public class RStarTree {
     // Gathers all TreeRecordIDs from the tree (order matches getAllPoints)
     public List<TreeRecordID> getAllRecordIDs() {
         List<TreeRecordID> result = new ArrayList<>();
-        getAllRecordIDsRecursive(root, result);
+        enterGate(PhaseGate.READ);
+        try {
+            getAllRecordIDsRecursive(published, result);
+        } finally {
+            exitGate();
+        }
         return result;
     }
 
@@ -0,0 +1,74 @@
+package spatialTree;
+
+import java.util.Arrays;
+
+// Result of RStarTree.rangeAggregate: how many points lie in the query box, and the sum,
+// minimum and maximum of each coordinate over them (e.g. uid and changeset for 5-d map data)
+public final class RangeAggregate {
+
+    private final int dimensions;
+    private long count;
+    private final double[] sums;
+    private final double[] min;
+    private final double[] max;
+
+    RangeAggregate(int dimensions) {
+        this.dimensions = dimensions;
+        this.sums = new double[dimensions];
+        this.min = new double[dimensions];
+        this.max = new double[dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    // Adds point i of a leaf
+    void addPoint(TreeLeafNode leaf, int index) {
+        count++;
+        for (int d = 0; d < dimensions; d++) {
+            double v = leaf.getCoordinate(index, d);
+            sums[d] += v;
+            if (v < min[d]) min[d] = v;
+            if (v > max[d]) max[d] = v;
+        }
+    }
+
+    // Adds a whole subtree from its totals and (tight) box, packed at off
+    void addSubtree(long subtreeCount, double[] subtreeSums, double[] boxMin, double[] boxMax, int off) {
+        if (subtreeCount == 0) return;
+        count += subtreeCount;
+        for (int d = 0; d < dimensions; d++) {
+            sums[d] += subtreeSums[off + d];
+            if (boxMin[off + d] < min[d]) min[d] = boxMin[off + d];
+            if (boxMax[off + d] > max[d]) max[d] = boxMax[off + d];
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum(int dim) {
+        return sums[dim];
+    }
+
+    // Average of coordinate dim (NaN if no point matched)
+    public double getMean(int dim) {
+        return count == 0 ? Double.NaN : sums[dim] / count;
+    }
+
+    // Smallest value of coordinate dim (+infinity if no point matched)
+    public double getMin(int dim) {
+        return min[dim];
+    }
+
+    // Largest value of coordinate dim (-infinity if no point matched)
+    public double getMax(int dim) {
+        return max[dim];
+    }
+
+    @Override
+    public String toString() {
+        return "RangeAggregate{count=" + count + ", sums=" + Arrays.toString(sums)
+                + ", min=" + Arrays.toString(min) + ", max=" + Arrays.toString(max) + "}";
+    }
+}
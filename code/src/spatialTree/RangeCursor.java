@@ -0,0 +1,164 @@
+package spatialTree;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Lazy range query: walks the tree with an explicit stack of (node, next entry) and yields the
+// matching record ids one at a time, without building result lists. Cursors of copy-on-write
+// trees read one snapshot; on other trees they fail fast if the tree is written meanwhile.
+public final class RangeCursor implements Iterator<TreeRecordID> {
+
+    private final RStarTree tree;
+    private final TreeNode root;
+    private final MBR query;
+    private final long version;      // tree version the traversal belongs to
+    private final boolean failFast;  // false when reading an immutable snapshot
+
+    private final TreeNode[] nodes;  // stack: nodes[0] is the root, nodes[depth] the current node
+    private final int[] next;        // index of the next child / point to look at in nodes[i]
+    private int depth;
+    private TreeRecordID pending;    // next match, found but not yet returned
+    private long remaining = Long.MAX_VALUE;
+
+    RangeCursor(RStarTree tree, TreeNode root, MBR query, long version, boolean failFast) {
+        this.tree = tree;
+        this.root = root;
+        this.query = query;
+        this.version = version;
+        this.failFast = failFast;
+        this.nodes = new TreeNode[root.getLevel() + 1];
+        this.next = new int[root.getLevel() + 1];
+        this.nodes[0] = root;
+        this.depth = root.getMbr() != null && root.getMbr().intersects(query) ? 0 : -1;
+    }
+
+    // Resumes where a token was taken
+    RangeCursor(RStarTree tree, Token token) {
+        this(tree, token.root, token.query, token.version, token.failFast);
+        depth = token.depth;
+        System.arraycopy(token.next, 0, next, 0, token.next.length);
+        for (int d = 1; d <= depth; d++) {
+            nodes[d] = ((TreeInternalNode) nodes[d - 1]).getChild(next[d - 1] - 1);
+        }
+    }
+
+    // Stops after `max` more results
+    public RangeCursor limit(long max) {
+        remaining = max;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0 && fetch();
+    }
+
+    @Override
+    public TreeRecordID next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        remaining--;
+        TreeRecordID result = pending;
+        pending = null;
+        return result;
+    }
+
+    // Position after the last returned result, for resuming with RStarTree.rangeCursor(token)
+    // (e.g. the next page); null if there are no further results
+    public Token token() {
+        if (!fetch()) return null;
+        int[] position = next.clone();
+        position[depth]--; // the pending result is produced again after resuming
+        return new Token(tree, root, query, version, failFast, depth, position);
+    }
+
+    // Sequential stream over the remaining results
+    public Stream<TreeRecordID> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Makes sure pending holds the next match, if there is one
+    private boolean fetch() {
+        if (pending != null) return true;
+        if (depth < 0) return false;
+        if (!failFast) {
+            pending = advance();
+            return pending != null;
+        }
+        tree.enterGate(PhaseGate.READ);
+        try {
+            if (tree.version() != version) throw new ConcurrentModificationException();
+            pending = advance();
+        } finally {
+            tree.exitGate();
+        }
+        return pending != null;
+    }
+
+    // Continues the depth-first traversal up to the next matching point
+    private TreeRecordID advance() {
+        while (depth >= 0) {
+            TreeNode node = nodes[depth];
+            int i = next[depth];
+            if (node.isLeaf()) {
+                TreeLeafNode leaf = (TreeLeafNode) node;
+                for (; i < leaf.getPointCount(); i++) {
+                    if (leaf.isPointInside(i, query)) {
+                        next[depth] = i + 1;
+                        return leaf.getRecordID(i);
+                    }
+                }
+                depth--;
+            } else {
+                TreeInternalNode internal = (TreeInternalNode) node;
+                int count = internal.getChildCount();
+                while (i < count && !internal.childIntersects(i, query)) i++;
+                if (i == count) {
+                    depth--;
+                    continue;
+                }
+                next[depth] = i + 1;
+                depth++;
+                nodes[depth] = internal.getChild(i);
+                next[depth] = 0;
+            }
+        }
+        return null;
+    }
+
+    // Opaque continuation of a range cursor. Tokens of copy-on-write trees stay valid (they keep
+    // their snapshot alive); others are only valid until the tree is written.
+    public static final class Token {
+        private final RStarTree tree;
+        private final TreeNode root;
+        private final MBR query;
+        private final long version;
+        private final boolean failFast;
+        private final int depth;
+        private final int[] next;
+
+        private Token(RStarTree tree, TreeNode root, MBR query, long version, boolean failFast, int depth, int[] next) {
+            this.tree = tree;
+            this.root = root;
+            this.query = query;
+            this.version = version;
+            this.failFast = failFast;
+            this.depth = depth;
+            this.next = next;
+        }
+
+        RStarTree tree() {
+            return tree;
+        }
+
+        // False once a tree that is not copy-on-write has been written after the token was taken
+        boolean current() {
+            return !failFast || tree.version() == version;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reverse k nearest neighbours, filter-refine in the style of TPL (Tao, Papadias & Lian).
+// A point p is an answer when fewer than k other points are strictly closer to p than the
+// query point q is.
+//
+// Filter: nodes are visited closest to q first. Every candidate o splits space by the
+// bisector of o and q; whatever lies wholly on o's side is closer to o than to q. A node or
+// point on o's side of k such bisectors cannot hold an answer and is dropped; the points
+// that survive become candidates (and prune later entries). The bisector is a hyperplane in
+// any number of dimensions, so the same test serves 2D and up.
+// Refine: each candidate counts the points strictly closer to it than q, first among the
+// other candidates, then with a tree search bounded by minimum distances, stopping at k.
+final class ReverseNearestNeighbors {
+
+    private final int dims;
+    private final int k;
+    private final double[] query;
+
+    // Candidates in visiting order, packed
+    private double[] points;
+    private int[] blockIds;
+    private int[] slotIds;
+    private int count;
+
+    private ReverseNearestNeighbors(double[] query, int k, int dims) {
+        this.dims = dims;
+        this.k = k;
+        this.query = query;
+        points = new double[16 * dims];
+        blockIds = new int[16];
+        slotIds = new int[16];
+    }
+
+    // Record ids of the points that have q among their k nearest neighbours
+    static List<TreeRecordID> query(TreeNode root, double[] query, int k, int dims) {
+        List<TreeRecordID> result = new ArrayList<>();
+        if (k <= 0 || root.getMbr() == null) return result;
+        ReverseNearestNeighbors rknn = new ReverseNearestNeighbors(query, k, dims);
+        rknn.filter(root);
+        double[] candidate = new double[dims];
+        for (int c = 0; c < rknn.count; c++) {
+            System.arraycopy(rknn.points, c * dims, candidate, 0, dims);
+            if (rknn.refine(root, c, candidate)) result.add(new TreeRecordID(rknn.blockIds[c], rknn.slotIds[c]));
+        }
+        return result;
+    }
+
+    private void filter(TreeNode root) {
+        DistanceQueue queue = new DistanceQueue(64);
+        MBR box = root.getMbr();
+        queue.addNode(MBR.minDistanceSq(box.getMin(), box.getMax(), 0, query, dims), root);
+        while (!queue.isEmpty()) {
+            TreeNode node = queue.peekNode();
+            queue.poll();
+            // Candidates found since the node was queued may prune it now
+            if (prunedBox(node.getMbr().getMin(), node.getMbr().getMax(), 0)) continue;
+
+            if (node.isLeaf()) {
+                TreeLeafNode leaf = (TreeLeafNode) node;
+                double[] coords = leaf.packedCoords();
+                for (int i = 0; i < leaf.getPointCount(); i++) {
+                    if (!prunedPoint(coords, i * dims)) addCandidate(coords, i * dims, leaf.getBlockId(i), leaf.getSlotId(i));
+                }
+                continue;
+            }
+            TreeInternalNode internal = (TreeInternalNode) node;
+            for (int i = 0; i < internal.getChildCount(); i++) {
+                if (!prunedBox(internal.packedMin(), internal.packedMax(), i * dims)) {
+                    queue.addNode(internal.childMinDistanceSq(i, query), internal.getChild(i));
+                }
+            }
+        }
+    }
+
+    private void addCandidate(double[] coords, int off, int blockId, int slotId) {
+        if (count == blockIds.length) {
+            int capacity = count * 2;
+            points = Arrays.copyOf(points, capacity * dims);
+            blockIds = Arrays.copyOf(blockIds, capacity);
+            slotIds = Arrays.copyOf(slotIds, capacity);
+        }
+        System.arraycopy(coords, off, points, count * dims, dims);
+        blockIds[count] = blockId;
+        slotIds[count] = slotId;
+        count++;
+    }
+
+    // True if k candidates are each closer than q to every point of the box: for each, the
+    // box's worst case of |x - o|^2 - |x - q|^2, which is linear in x, is still negative
+    private boolean prunedBox(double[] min, double[] max, int off) {
+        int closer = 0;
+        for (int c = 0; c < count && closer < k; c++) {
+            int co = c * dims;
+            double worst = 0.0;
+            for (int d = 0; d < dims; d++) {
+                double slope = query[d] - points[co + d]; // |x-o|^2 - |x-q|^2 = sum slope * (2x - o - q)
+                double x = slope > 0 ? max[off + d] : min[off + d];
+                worst += slope * (2 * x - points[co + d] - query[d]);
+            }
+            if (worst < 0) closer++;
+        }
+        return closer >= k;
+    }
+
+    // Same for a point, on exact squared distances
+    private boolean prunedPoint(double[] coords, int off) {
+        double limit = distanceSq(coords, off, query, 0);
+        int closer = 0;
+        for (int c = 0; c < count && closer < k; c++) {
+            if (distanceSq(coords, off, points, c * dims) < limit) closer++;
+        }
+        return closer >= k;
+    }
+
+    // True if fewer than k points other than candidate c are strictly closer to it than q
+    private boolean refine(TreeNode root, int c, double[] p) {
+        double limit = distanceSq(p, 0, query, 0);
+        int closer = 0;
+        for (int o = 0; o < count && closer < k; o++) {
+            if (o != c && distanceSq(p, 0, points, o * dims) < limit) closer++;
+        }
+        if (closer >= k) return false;
+        return countCloser(root, p, limit, blockIds[c], slotIds[c]) < k;
+    }
+
+    // Points strictly within sqrt(limit) of p other than record (blockId, slotId), up to k
+    private int countCloser(TreeNode node, double[] p, double limit, int blockId, int slotId) {
+        int closer = 0;
+        if (node.isLeaf()) {
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount() && closer < k; i++) {
+                if (leaf.squaredDistance(i, p) < limit && (leaf.getBlockId(i) != blockId || leaf.getSlotId(i) != slotId)) {
+                    closer++;
+                }
+            }
+            return closer;
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        for (int i = 0; i < internal.getChildCount() && closer < k; i++) {
+            if (internal.childMinDistanceSq(i, p) < limit) {
+                closer += countCloser(internal.getChild(i), p, limit, blockId, slotId);
+            }
+        }
+        return closer;
+    }
+
+    private double distanceSq(double[] a, int aOff, double[] b, int bOff) {
+        double sum = 0.0;
+        for (int d = 0; d < dims; d++) {
+            double diff = a[aOff + d] - b[bOff + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
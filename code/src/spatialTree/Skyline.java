@@ -0,0 +1,194 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Branch-and-bound skyline (Papadias, Tao, Fu & Seeger). Entries are visited in order of the
+// sum of their lower corner (their L1 distance from the origin), so a point can only be
+// dominated by points already visited. A point not dominated by the skyline so far joins
+// it; a node whose lower corner is dominated holds only dominated points and is never
+// opened. Dominance is the one of RStarTree: no worse on every dimension and better on one.
+//
+// The search may be limited to a box (constrained skyline: only the points inside it, and
+// corners clipped to it), and may start from seed points that are already known to be in
+// the skyline. Seeds also rule out points equal to them, which are already reported.
+final class Skyline {
+
+    private final int dims;
+    private final double[] lo; // search box, or null for the whole tree
+    private final double[] hi;
+    private final double[] corner; // lower corner of a node, clipped to the box
+    private final DistanceQueue queue = new DistanceQueue(64);
+
+    // Points taken off leaves, waiting in the queue (the queue holds their index)
+    private double[] candidates;
+    private int[] candidateBlocks;
+    private int[] candidateSlots;
+    private int candidateCount;
+
+    // The seeds, then the skyline points found, in visiting order (non-decreasing key)
+    double[] points;
+    int[] blockIds;
+    int[] slotIds;
+    int count;
+    private double[] keys;
+    private final int seeds;
+
+    Skyline(int dims, MBR box, double[] seedPoints, int seedCount) {
+        this.dims = dims;
+        this.lo = box == null ? null : box.getMin();
+        this.hi = box == null ? null : box.getMax();
+        this.corner = new double[dims];
+        candidates = new double[64 * dims];
+        candidateBlocks = new int[64];
+        candidateSlots = new int[64];
+        int capacity = Math.max(16, seedCount * 2);
+        points = new double[capacity * dims];
+        blockIds = new int[capacity];
+        slotIds = new int[capacity];
+        keys = new double[capacity];
+        if (seedCount > 0) System.arraycopy(seedPoints, 0, points, 0, seedCount * dims);
+        seeds = seedCount;
+        count = seedCount;
+    }
+
+    // Record ids of the skyline points under root (inside box, unless it is null)
+    static List<TreeRecordID> compute(TreeNode root, int dims, MBR box) {
+        Skyline sky = new Skyline(dims, box, null, 0);
+        sky.run(root);
+        List<TreeRecordID> result = new ArrayList<>(sky.count);
+        for (int i = 0; i < sky.count; i++) result.add(new TreeRecordID(sky.blockIds[i], sky.slotIds[i]));
+        return result;
+    }
+
+    int seedCount() {
+        return seeds;
+    }
+
+    void run(TreeNode root) {
+        MBR box = root.getMbr();
+        if (box == null || (lo != null && !MBR.intersects(box.getMin(), box.getMax(), 0, lo, hi, 0, dims))) return;
+        queue.addNode(clippedKey(box.getMin(), 0), root);
+        while (!queue.isEmpty()) {
+            double key = queue.peekKey();
+            TreeNode node = queue.peekNode();
+            int candidate = queue.peekBlockId();
+            queue.poll();
+
+            if (node == null) {
+                if (!dominated(candidates, candidate * dims)) accept(key, candidate);
+                continue;
+            }
+            // The skyline may have grown since the node was queued
+            clippedKey(node.getMbr().getMin(), 0);
+            if (dominated(corner, 0)) continue;
+            if (node.isLeaf()) {
+                TreeLeafNode leaf = (TreeLeafNode) node;
+                double[] coords = leaf.packedCoords();
+                for (int i = 0; i < leaf.getPointCount(); i++) {
+                    if (lo != null && !leaf.isPointInside(i, lo, hi, 0)) continue;
+                    if (!dominated(coords, i * dims)) {
+                        queue.addPoint(sum(coords, i * dims), addCandidate(coords, i * dims, leaf, i), 0);
+                    }
+                }
+            } else {
+                TreeInternalNode internal = (TreeInternalNode) node;
+                double[] min = internal.packedMin();
+                for (int i = 0; i < internal.getChildCount(); i++) {
+                    if (lo != null && !internal.childIntersects(i, lo, hi, 0)) continue;
+                    double childKey = clippedKey(min, i * dims);
+                    if (!dominated(corner, 0)) queue.addNode(childKey, internal.getChild(i));
+                }
+            }
+        }
+    }
+
+    // Copies the lower corner at off, raised to the search box, into corner; returns its sum
+    private double clippedKey(double[] min, int off) {
+        for (int d = 0; d < dims; d++) {
+            corner[d] = lo == null ? min[off + d] : Math.max(min[off + d], lo[d]);
+        }
+        return sum(corner, 0);
+    }
+
+    // Adds a point to the skyline. Dominance implies a strictly smaller key, but rounding can
+    // make the sums equal, so points found with the same key that this one dominates are
+    // dropped again.
+    private void accept(double key, int candidate) {
+        int off = candidate * dims;
+        int keep = count;
+        while (keep > seeds && keys[keep - 1] == key) keep--;
+        for (int i = keep; i < count; i++) {
+            if (!dominates(candidates, off, points, i * dims)) move(i, keep++);
+        }
+        count = keep;
+
+        if (count == keys.length) {
+            int capacity = count * 2;
+            points = Arrays.copyOf(points, capacity * dims);
+            keys = Arrays.copyOf(keys, capacity);
+            blockIds = Arrays.copyOf(blockIds, capacity);
+            slotIds = Arrays.copyOf(slotIds, capacity);
+        }
+        System.arraycopy(candidates, off, points, count * dims, dims);
+        keys[count] = key;
+        blockIds[count] = candidateBlocks[candidate];
+        slotIds[count] = candidateSlots[candidate];
+        count++;
+    }
+
+    private void move(int from, int to) {
+        if (from == to) return;
+        System.arraycopy(points, from * dims, points, to * dims, dims);
+        keys[to] = keys[from];
+        blockIds[to] = blockIds[from];
+        slotIds[to] = slotIds[from];
+    }
+
+    private int addCandidate(double[] coords, int off, TreeLeafNode leaf, int i) {
+        if (candidateCount == candidateBlocks.length) {
+            int capacity = candidateCount * 2;
+            candidates = Arrays.copyOf(candidates, capacity * dims);
+            candidateBlocks = Arrays.copyOf(candidateBlocks, capacity);
+            candidateSlots = Arrays.copyOf(candidateSlots, capacity);
+        }
+        System.arraycopy(coords, off, candidates, candidateCount * dims, dims);
+        candidateBlocks[candidateCount] = leaf.getBlockId(i);
+        candidateSlots[candidateCount] = leaf.getSlotId(i);
+        return candidateCount++;
+    }
+
+    // True if a skyline point dominates the point (or lower corner) at off, or a seed is no
+    // worse than it on every dimension
+    private boolean dominated(double[] values, int off) {
+        for (int i = 0; i < count; i++) {
+            if (i < seeds ? covers(points, i * dims, values, off) : dominates(points, i * dims, values, off)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean dominates(double[] a, int aOff, double[] b, int bOff) {
+        boolean strictlyBetter = false;
+        for (int d = 0; d < dims; d++) {
+            if (a[aOff + d] > b[bOff + d]) return false;
+            if (a[aOff + d] < b[bOff + d]) strictlyBetter = true;
+        }
+        return strictlyBetter;
+    }
+
+    private boolean covers(double[] a, int aOff, double[] b, int bOff) {
+        for (int d = 0; d < dims; d++) {
+            if (a[aOff + d] > b[bOff + d]) return false;
+        }
+        return true;
+    }
+
+    private double sum(double[] values, int off) {
+        double s = 0.0;
+        for (int d = 0; d < dims; d++) s += values[off + d];
+        return s;
+    }
+}
@@ -0,0 +1,173 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The skyline of a tree, kept current by its writes (see RStarTree.enableSkylineIndex).
+// An added point is checked against the skyline only: it either is dominated, or joins and
+// evicts the points it dominates. A removed skyline point leaves a gap that only the points
+// it alone dominated can fill, so after the write the tree is searched just over its
+// dominance region, seeded with the rest of the skyline. Removed points that were not in
+// the skyline change nothing. Methods are synchronized for concurrent inserts.
+final class SkylineIndex {
+
+    private final int dims;
+    private double[] points = new double[0];
+    private int[] blockIds = new int[0];
+    private int[] slotIds = new int[0];
+    private int count;
+
+    // Skyline points removed by the current write, whose dominance regions still need a search
+    private double[] removed = new double[0];
+    private int removedCount;
+
+    // Points added by the same write (a moved record), checked only after that search: one of
+    // the points it brings back may dominate them
+    private double[] deferred = new double[0];
+    private int[] deferredBlocks = new int[0];
+    private int[] deferredSlots = new int[0];
+    private int deferredCount;
+
+    private volatile List<TreeRecordID> published = new ArrayList<>(); // as of the last publish()
+
+    SkylineIndex(int dims) {
+        this.dims = dims;
+    }
+
+    // Recomputes the skyline from scratch
+    synchronized void rebuild(TreeNode root) {
+        count = 0;
+        removedCount = 0;
+        Skyline sky = new Skyline(dims, null, null, 0);
+        sky.run(root);
+        append(sky);
+    }
+
+    synchronized void pointAdded(double[] point, int blockId, int slotId) {
+        if (removedCount > 0) {
+            if (deferredCount == deferredBlocks.length) {
+                int capacity = Math.max(4, deferredCount * 2);
+                deferred = Arrays.copyOf(deferred, capacity * dims);
+                deferredBlocks = Arrays.copyOf(deferredBlocks, capacity);
+                deferredSlots = Arrays.copyOf(deferredSlots, capacity);
+            }
+            System.arraycopy(point, 0, deferred, deferredCount * dims, dims);
+            deferredBlocks[deferredCount] = blockId;
+            deferredSlots[deferredCount] = slotId;
+            deferredCount++;
+            return;
+        }
+        add(point, 0, blockId, slotId);
+    }
+
+    // Checks a point against the skyline. The search may already have reported the record
+    // itself; that entry is replaced. A dominated point dominates no skyline point, so the
+    // early return leaves the list intact.
+    private void add(double[] point, int pointOff, int blockId, int slotId) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int off = i * dims;
+            if (blockIds[i] == blockId && slotIds[i] == slotId) continue;
+            if (dominates(points, off, point, pointOff)) return;
+            if (!dominates(point, pointOff, points, off)) move(i, kept++);
+        }
+        count = kept;
+        ensureCapacity(count + 1);
+        System.arraycopy(point, pointOff, points, count * dims, dims);
+        blockIds[count] = blockId;
+        slotIds[count] = slotId;
+        count++;
+    }
+
+    synchronized void recordRemoved(int blockId, int slotId) {
+        for (int i = 0; i < count; i++) {
+            if (blockIds[i] == blockId && slotIds[i] == slotId) {
+                takeOut(i);
+                return;
+            }
+        }
+    }
+
+    // Every point inside region was removed
+    synchronized void regionRemoved(MBR region) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (MBR.intersects(points, points, i * dims, region.getMin(), region.getMax(), 0, dims)) takeOut(i);
+        }
+    }
+
+    // Ends a write: searches the dominance regions of the skyline points it removed. A point
+    // found in one region may dominate one found in an earlier region, so the finds are added
+    // like inserted points.
+    synchronized void repair(TreeNode root) {
+        double[] up = new double[dims];
+        Arrays.fill(up, Double.POSITIVE_INFINITY);
+        for (int r = 0; r < removedCount; r++) {
+            double[] low = Arrays.copyOfRange(removed, r * dims, (r + 1) * dims);
+            Skyline sky = new Skyline(dims, new MBR(low, up), points, count);
+            sky.run(root);
+            for (int i = sky.seedCount(); i < sky.count; i++) add(sky.points, i * dims, sky.blockIds[i], sky.slotIds[i]);
+        }
+        removedCount = 0;
+        for (int i = 0; i < deferredCount; i++) add(deferred, i * dims, deferredBlocks[i], deferredSlots[i]);
+        deferredCount = 0;
+    }
+
+    // Makes the current skyline the one published() returns
+    void publish() {
+        published = toList();
+    }
+
+    List<TreeRecordID> published() {
+        return published;
+    }
+
+    synchronized List<TreeRecordID> toList() {
+        List<TreeRecordID> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(new TreeRecordID(blockIds[i], slotIds[i]));
+        return result;
+    }
+
+    // Removes skyline point i, remembering it for repair
+    private void takeOut(int i) {
+        if ((removedCount + 1) * dims > removed.length) {
+            removed = Arrays.copyOf(removed, Math.max(4, removedCount * 2) * dims);
+        }
+        System.arraycopy(points, i * dims, removed, removedCount * dims, dims);
+        removedCount++;
+        move(count - 1, i);
+        count--;
+    }
+
+    private void append(Skyline sky) {
+        ensureCapacity(count + sky.count);
+        System.arraycopy(sky.points, 0, points, count * dims, sky.count * dims);
+        System.arraycopy(sky.blockIds, 0, blockIds, count, sky.count);
+        System.arraycopy(sky.slotIds, 0, slotIds, count, sky.count);
+        count += sky.count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= blockIds.length) return;
+        capacity = Math.max(capacity, blockIds.length * 2);
+        points = Arrays.copyOf(points, capacity * dims);
+        blockIds = Arrays.copyOf(blockIds, capacity);
+        slotIds = Arrays.copyOf(slotIds, capacity);
+    }
+
+    private void move(int from, int to) {
+        if (from == to) return;
+        System.arraycopy(points, from * dims, points, to * dims, dims);
+        blockIds[to] = blockIds[from];
+        slotIds[to] = slotIds[from];
+    }
+
+    private boolean dominates(double[] a, int aOff, double[] b, int bOff) {
+        boolean strictlyBetter = false;
+        for (int d = 0; d < dims; d++) {
+            if (a[aOff + d] > b[bOff + d]) return false;
+            if (a[aOff + d] < b[bOff + d]) strictlyBetter = true;
+        }
+        return strictlyBetter;
+    }
+}
@@ -0,0 +1,179 @@
+package spatialTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Spatial join of two trees by synchronized traversal (Brinkhoff, Kriegel & Seeger): both
+// trees are descended in tandem, and only pairs of nodes whose boxes lie within epsilon of
+// each other are followed. Inside a node pair, each side is first cut down to the entries
+// near the other node's box, and the pairs are then found by a plane sweep along
+// dimension 0. Points match when they are within epsilon on every dimension (box join;
+// epsilon 0 is the intersection join) or within Euclidean distance epsilon.
+final class SpatialJoin {
+
+    private static final int TASKS_PER_WORKER = 8; // node pairs to spread over the pool, per worker
+    private static final int SWEEP_MIN = 8;        // with fewer entries on one side, all pairs are tested directly
+
+    private final int dims;
+    private final double epsilon;
+    private final double epsilonSq;
+    private final boolean euclidean;
+
+    private SpatialJoin(int dims, double epsilon, boolean euclidean) {
+        this.dims = dims;
+        this.epsilon = epsilon;
+        this.epsilonSq = epsilon * epsilon;
+        this.euclidean = euclidean;
+    }
+
+    // Joins two trees from their roots; a null pool runs on this thread
+    static List<TreeRecordIDPair> run(TreeNode left, TreeNode right, int dims, double epsilon, boolean euclidean,
+                                      ForkJoinPool pool) {
+        SpatialJoin join = new SpatialJoin(dims, epsilon, euclidean);
+        List<TreeRecordIDPair> results = new ArrayList<>();
+        MBR a = left.getMbr(), b = right.getMbr();
+        if (a == null || b == null || !join.matches(a.getMin(), a.getMax(), 0, b.getMin(), b.getMax(), 0)) {
+            return results;
+        }
+        if (pool == null || pool.getParallelism() < 2) {
+            join.nodes(left, right, results);
+            return results;
+        }
+
+        // Expand the root pair level by level into enough independent node pairs
+        List<TreeNode[]> pairs = new ArrayList<>();
+        pairs.add(new TreeNode[]{left, right});
+        int wanted = pool.getParallelism() * TASKS_PER_WORKER;
+        boolean expanded = true;
+        while (pairs.size() < wanted && expanded) {
+            List<TreeNode[]> next = new ArrayList<>();
+            expanded = false;
+            for (TreeNode[] pair : pairs) {
+                if (pair[0].isLeaf() && pair[1].isLeaf()) {
+                    next.add(pair);
+                } else {
+                    join.expand(pair[0], pair[1], (x, y) -> next.add(new TreeNode[]{x, y}));
+                    expanded = true;
+                }
+            }
+            pairs = next;
+        }
+
+        List<TreeNode[]> tasks = pairs;
+        List<List<TreeRecordIDPair>> parts = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) parts.add(new ArrayList<>());
+        Parallel.forRange(pool, 0, tasks.size(), 1, (from, to) -> {
+            for (int i = from; i < to; i++) join.nodes(tasks.get(i)[0], tasks.get(i)[1], parts.get(i));
+        });
+        for (List<TreeRecordIDPair> part : parts) results.addAll(part);
+        return results;
+    }
+
+    private interface NodePairs {
+        void accept(TreeNode left, TreeNode right);
+    }
+
+    private interface EntryPairs {
+        void accept(int left, int right);
+    }
+
+    // Joins the subtrees under a matching pair of nodes
+    private void nodes(TreeNode left, TreeNode right, List<TreeRecordIDPair> results) {
+        if (left.isLeaf() && right.isLeaf()) {
+            TreeLeafNode a = (TreeLeafNode) left, b = (TreeLeafNode) right;
+            double[] ac = a.packedCoords(), bc = b.packedCoords();
+            sweep(ac, ac, a.getPointCount(), right.getMbr(), bc, bc, b.getPointCount(), left.getMbr(),
+                    (i, j) -> results.add(new TreeRecordIDPair(a.getRecordID(i), b.getRecordID(j))));
+            return;
+        }
+        expand(left, right, (x, y) -> nodes(x, y, results));
+    }
+
+    // Matching child pairs of a node pair. Trees of different heights descend the higher side
+    // alone until both are at the same level.
+    private void expand(TreeNode left, TreeNode right, NodePairs action) {
+        if (left.getLevel() > right.getLevel()) {
+            TreeInternalNode a = (TreeInternalNode) left;
+            MBR box = right.getMbr();
+            for (int i = 0; i < a.getChildCount(); i++) {
+                if (matches(a.packedMin(), a.packedMax(), i * dims, box.getMin(), box.getMax(), 0)) {
+                    action.accept(a.getChild(i), right);
+                }
+            }
+        } else if (right.getLevel() > left.getLevel()) {
+            TreeInternalNode b = (TreeInternalNode) right;
+            MBR box = left.getMbr();
+            for (int j = 0; j < b.getChildCount(); j++) {
+                if (matches(box.getMin(), box.getMax(), 0, b.packedMin(), b.packedMax(), j * dims)) {
+                    action.accept(left, b.getChild(j));
+                }
+            }
+        } else {
+            TreeInternalNode a = (TreeInternalNode) left, b = (TreeInternalNode) right;
+            sweep(a.packedMin(), a.packedMax(), a.getChildCount(), right.getMbr(),
+                    b.packedMin(), b.packedMax(), b.getChildCount(), left.getMbr(),
+                    (i, j) -> action.accept(a.getChild(i), b.getChild(j)));
+        }
+    }
+
+    // Plane sweep over two packed entry lists: entries of a near bBox and entries of b near
+    // aBox, sorted on their lower bound in dimension 0; every pair overlapping on dimension 0
+    // (within epsilon) is tested in full. A side left with only a few entries is cheaper to
+    // test against all of the other side than to sort.
+    private void sweep(double[] aMin, double[] aMax, int aCount, MBR bBox,
+                       double[] bMin, double[] bMax, int bCount, MBR aBox, EntryPairs action) {
+        int[] as = restrict(aMin, aMax, aCount, bBox);
+        int[] bs = restrict(bMin, bMax, bCount, aBox);
+        int na = as.length, nb = bs.length;
+        if (na < SWEEP_MIN || nb < SWEEP_MIN) {
+            for (int a : as) {
+                for (int b : bs) {
+                    if (matches(aMin, aMax, a * dims, bMin, bMax, b * dims)) action.accept(a, b);
+                }
+            }
+            return;
+        }
+        IndexSorter.sort(as, 0, na, aMin, dims, 0);
+        IndexSorter.sort(bs, 0, nb, bMin, dims, 0);
+
+        int i = 0, j = 0;
+        while (i < na && j < nb) {
+            if (aMin[as[i] * dims] <= bMin[bs[j] * dims]) {
+                int a = as[i++];
+                double reach = aMax[a * dims] + epsilon;
+                for (int k = j; k < nb && bMin[bs[k] * dims] <= reach; k++) {
+                    if (matches(aMin, aMax, a * dims, bMin, bMax, bs[k] * dims)) action.accept(a, bs[k]);
+                }
+            } else {
+                int b = bs[j++];
+                double reach = bMax[b * dims] + epsilon;
+                for (int k = i; k < na && aMin[as[k] * dims] <= reach; k++) {
+                    if (matches(aMin, aMax, as[k] * dims, bMin, bMax, b * dims)) action.accept(as[k], b);
+                }
+            }
+        }
+    }
+
+    // Indices of the entries within epsilon of the other node's box
+    private int[] restrict(double[] min, double[] max, int count, MBR other) {
+        int[] kept = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (matches(min, max, i * dims, other.getMin(), other.getMax(), 0)) kept[n++] = i;
+        }
+        return n == count ? kept : Arrays.copyOf(kept, n);
+    }
+
+    // True if box a (or a point, with min == max) lies within epsilon of box b
+    private boolean matches(double[] aMin, double[] aMax, int aOff, double[] bMin, double[] bMax, int bOff) {
+        if (euclidean) {
+            return MBR.minDistanceSq(aMin, aMax, aOff, bMin, bMax, bOff, dims) <= epsilonSq;
+        }
+        for (int d = 0; d < dims; d++) {
+            if (bMin[bOff + d] - aMax[aOff + d] > epsilon || aMin[aOff + d] - bMax[bOff + d] > epsilon) return false;
+        }
+        return true;
+    }
+}
@@ -1,44 +1,194 @@
 package spatialTree;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 // Implements bottom-up bulk loading for R*-Tree
 public class TreeBulkLoader {
+
+    private static final int POINT_GRAIN = 1 << 14; // points per task when packing input
+    private static final int NODE_GRAIN = 64;       // nodes per task when building a level
+    private static final int TILE_GRAIN = 1 << 13;  // smaller STR ranges are tiled by one task
+
+    // How the entries of each level are grouped into nodes
+    public enum Method {
+        SORT_FIRST_DIM, // sort on dimension 0 and cut into runs (slabs across the other dimensions)
+        STR,            // Sort-Tile-Recursive: tile every dimension in turn
+        HILBERT         // sort the points by Hilbert key; upper levels keep the leaves' order
+    }
+
     public static RStarTree bulkLoad(List<double[]> dataPoints, List<TreeRecordID> recordPointers, int maxPerNode, int dims) {
-        // Sort points by first dimension
-        List<Integer> order = new ArrayList<>();
-        for (int i = 0; i < dataPoints.size(); i++) order.add(i);
-        order.sort(Comparator.comparingDouble(idx -> dataPoints.get(idx)[0]));
-
-        // Create leaf nodes
-        List<TreeNode> thisLevel = new ArrayList<>();
-        for (int i = 0; i < order.size(); i += maxPerNode) {
-            TreeLeafNode leaf = new TreeLeafNode(dims);
-            for (int j = i; j < Math.min(i + maxPerNode, order.size()); j++) {
-                leaf.insert(dataPoints.get(order.get(j)), recordPointers.get(order.get(j)), maxPerNode);
-            }
-            thisLevel.add(leaf);
+        return bulkLoad(dataPoints, recordPointers, maxPerNode, dims, Method.SORT_FIRST_DIM, 1.0);
+    }
+
+    // fillFactor in (0, 1]: nodes are packed with at most fillFactor * maxPerNode entries,
+    // leaving room for later inserts before nodes split
+    public static RStarTree bulkLoad(List<double[]> dataPoints, List<TreeRecordID> recordPointers, int maxPerNode,
+                                     int dims, Method method, double fillFactor) {
+        return build(dataPoints, recordPointers, maxPerNode, dims, method, fillFactor, null);
+    }
+
+    // Parallel bulk loading on the common pool
+    public static RStarTree parallelBulkLoad(List<double[]> dataPoints, List<TreeRecordID> recordPointers,
+                                             int maxPerNode, int dims, Method method, double fillFactor) {
+        return parallelBulkLoad(dataPoints, recordPointers, maxPerNode, dims, method, fillFactor,
+                ForkJoinPool.commonPool());
+    }
+
+    // Same packing as bulkLoad, with parallel primitive sorts, STR slabs tiled as independent
+    // tasks, and the nodes of every level built in parallel before the next level is stitched
+    // on top of them
+    public static RStarTree parallelBulkLoad(List<double[]> dataPoints, List<TreeRecordID> recordPointers,
+                                             int maxPerNode, int dims, Method method, double fillFactor,
+                                             ForkJoinPool pool) {
+        return build(dataPoints, recordPointers, maxPerNode, dims, method, fillFactor, pool);
+    }
+
+    // Builds the tree level by level; a null pool does all the work on this thread
+    private static RStarTree build(List<double[]> dataPoints, List<TreeRecordID> recordPointers, int maxPerNode,
+                                   int dims, Method method, double fillFactor, ForkJoinPool pool) {
+        if (fillFactor <= 0.0 || fillFactor > 1.0) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
         }
+        int perNode = Math.max(2, (int) (maxPerNode * fillFactor));
+        int count = dataPoints.size();
 
-        // Build upper levels (internal nodes)
-        while (thisLevel.size() > 1) {
-            List<TreeNode> upperLevel = new ArrayList<>();
-            for (int i = 0; i < thisLevel.size(); i += maxPerNode) {
-                TreeInternalNode internal = new TreeInternalNode(dims);
-                for (int j = i; j < Math.min(i + maxPerNode, thisLevel.size()); j++) {
-                    internal.addChild(thisLevel.get(j));
-                }
-                upperLevel.add(internal);
+        // Points and record ids packed into primitive arrays, so sorting moves indices only
+        double[] coords = new double[count * dims];
+        int[] blocks = new int[count];
+        int[] slots = new int[count];
+        Parallel.forRange(pool, 0, count, POINT_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                System.arraycopy(dataPoints.get(i), 0, coords, i * dims, dims);
+                TreeRecordID rid = recordPointers.get(i);
+                blocks[i] = rid.getBlockId();
+                slots[i] = rid.getSlotId();
             }
+        });
+
+        // Create leaf nodes straight from the packed arrays
+        int[] order = IndexSorter.identity(count);
+        List<int[]> leafGroups = group(pool, order, coords, count, dims, perNode, method, true);
+        TreeNode[] leaves = new TreeNode[leafGroups.size()];
+        Parallel.forRange(pool, 0, leaves.length, NODE_GRAIN, (from, to) -> {
+            for (int g = from; g < to; g++) {
+                int[] group = leafGroups.get(g);
+                leaves[g] = TreeLeafNode.fromPacked(coords, blocks, slots, order, group[0], group[1], dims);
+            }
+        });
+
+        // Build upper levels (internal nodes), grouping the children by their centers
+        TreeNode[] thisLevel = leaves;
+        while (thisLevel.length > 1) {
+            TreeNode[] children = thisLevel;
+            int nodes = children.length;
+            double[] centers = new double[nodes * dims];
+            Parallel.forRange(pool, 0, nodes, NODE_GRAIN, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    System.arraycopy(children[i].getMbr().getCenter(), 0, centers, i * dims, dims);
+                }
+            });
+            int[] childOrder = IndexSorter.identity(nodes);
+            List<int[]> groups = group(pool, childOrder, centers, nodes, dims, perNode, method, false);
+            TreeNode[] upperLevel = new TreeNode[groups.size()];
+            Parallel.forRange(pool, 0, upperLevel.length, NODE_GRAIN, (from, to) -> {
+                for (int g = from; g < to; g++) {
+                    TreeInternalNode internal = new TreeInternalNode(dims);
+                    for (int j = groups.get(g)[0]; j < groups.get(g)[1]; j++) {
+                        internal.addChild(children[childOrder[j]]);
+                    }
+                    upperLevel[g] = internal;
+                }
+            });
             thisLevel = upperLevel;
         }
 
         // Set tree root and return
         RStarTree tree = new RStarTree(maxPerNode, dims);
-        if (!thisLevel.isEmpty()) {
-            tree.root = thisLevel.get(0);
-            tree.globalRoot = tree.root;
+        if (thisLevel.length > 0) {
+            tree.setRoot(thisLevel[0]);
         }
         return tree;
     }
-}
\ No newline at end of file
+
+    // Reorders `order` and returns the [from, to) ranges of it that become one node each
+    private static List<int[]> group(ForkJoinPool pool, int[] order, double[] keys, int count, int dims, int perNode,
+                                     Method method, boolean leaves) {
+        List<int[]> groups = new ArrayList<>();
+        switch (method) {
+            case STR:
+                tile(pool, order, 0, count, keys, dims, 0, perNode, groups);
+                balanceTail(groups, perNode);
+                return groups;
+            case HILBERT:
+                if (leaves) {
+                    IndexSorter.parallelSort(pool, order, 0, count, HilbertCurve.keys(keys, count, dims, pool), 1, 0);
+                }
+                break;
+            default:
+                IndexSorter.parallelSort(pool, order, 0, count, keys, dims, 0);
+        }
+        chop(0, count, perNode, groups);
+        balanceTail(groups, perNode);
+        return groups;
+    }
+
+    // Every group but the last is full (STR slabs are whole nodes, except the last one), so
+    // only the last can be short. If it is under half a node, it shares the entries of the
+    // one before it evenly, which leaves both with at least half of perNode. That is the R*
+    // minimum fill only when nodes are packed full (insertAll packs its batch that way);
+    // with a lower fill factor the last nodes of a level can be under it.
+    private static void balanceTail(List<int[]> groups, int perNode) {
+        int n = groups.size();
+        if (n < 2) return;
+        int[] last = groups.get(n - 1);
+        if (last[1] - last[0] >= (perNode + 1) / 2) return;
+        int[] previous = groups.get(n - 2);
+        int split = previous[0] + (last[1] - previous[0] + 1) / 2;
+        previous[1] = split;
+        last[0] = split;
+    }
+
+    // STR: sorts the range on `dim` and cuts it into slabs of whole nodes, so that the
+    // remaining dimensions get about (nodes ^ 1/remaining) slabs each; the last dimension
+    // is cut straight into nodes. Large slabs are tiled as separate tasks.
+    private static void tile(ForkJoinPool pool, int[] order, int from, int to, double[] keys, int dims, int dim,
+                             int perNode, List<int[]> groups) {
+        IndexSorter.parallelSort(pool, order, from, to, keys, dims, dim);
+        int count = to - from;
+        if (dim == dims - 1 || count <= perNode) {
+            chop(from, to, perNode, groups);
+            return;
+        }
+        int nodes = (count + perNode - 1) / perNode;
+        int slabs = (int) Math.ceil(Math.pow(nodes, 1.0 / (dims - dim)));
+        int slabSize = perNode * ((nodes + slabs - 1) / slabs);
+
+        if (pool == null || count <= TILE_GRAIN) {
+            for (int start = from; start < to; start += slabSize) {
+                tile(null, order, start, Math.min(start + slabSize, to), keys, dims, dim + 1, perNode, groups);
+            }
+            return;
+        }
+
+        // Slabs cover disjoint ranges of `order`; their groups are appended in slab order
+        int slabCount = (count + slabSize - 1) / slabSize;
+        List<List<int[]>> slabGroups = new ArrayList<>(slabCount);
+        for (int s = 0; s < slabCount; s++) slabGroups.add(new ArrayList<>());
+        Parallel.forRange(pool, 0, slabCount, 1, (first, last) -> {
+            for (int s = first; s < last; s++) {
+                int start = from + s * slabSize;
+                tile(pool, order, start, Math.min(start + slabSize, to), keys, dims, dim + 1, perNode,
+                        slabGroups.get(s));
+            }
+        });
+        for (List<int[]> slab : slabGroups) groups.addAll(slab);
+    }
+
+    // Cuts [from, to) into consecutive runs of perNode entries
+    private static void chop(int from, int to, int perNode, List<int[]> groups) {
+        for (int i = from; i < to; i += perNode) {
+            groups.add(new int[]{i, Math.min(i + perNode, to)});
+        }
+    }
+}
@@ -5,8 +5,16 @@ import java.util.*;
 // Internal node for R*-Tree, manages children nodes and advanced split/reinsertion logic
 public class TreeInternalNode extends TreeNode {
 
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int OVERLAP_CANDIDATES = 32; // R*: p for the nearly-minimum-overlap test
+    private static final ThreadLocal<ChooseScratch> SCRATCH = ThreadLocal.withInitial(ChooseScratch::new);
+
     private List<TreeNode> children;
-    private boolean hasReinserted = false;
+    private double[] childMin; // children's boxes, packed (stride = dimensions), same order as children
+    private double[] childMax;
+    private long[] childCounts; // points under each child, same order as children
+    private double[] childSums; // per-dimension sums under each child, packed like the boxes
+    private long count;         // points in this subtree
 
     public TreeInternalNode() {
         super();
@@ -17,6 +25,10 @@ public class TreeInternalNode extends TreeNode {
     public TreeInternalNode(int dimensions) {
         super(dimensions);
         this.children = new ArrayList<>();
+        this.childMin = new double[INITIAL_CAPACITY * dimensions];
+        this.childMax = new double[INITIAL_CAPACITY * dimensions];
+        this.childCounts = new long[INITIAL_CAPACITY];
+        this.childSums = new double[INITIAL_CAPACITY * dimensions];
     }
 
     @Override
@@ -29,236 +41,513 @@ public class TreeInternalNode extends TreeNode {
         return children;
     }
 
-    // Insert point to the best child, handle split/reinsertion if needed
     @Override
-    public void insert(double[] point, TreeRecordID rid, int maxEntries) {
-        TreeNode chosen = chooseSubtree(point);
-        chosen.insert(point, rid, maxEntries);
+    public int getEntryCount() {
+        return children.size();
+    }
 
-        // Update MBR after insert
-        if (mbr == null) {
-            mbr = chosen.getMbr();
-        } else {
-            mbr.merge(chosen.getMbr());
-        }
+    @Override
+    public long getSubtreeCount() {
+        return count;
+    }
 
-        // Handle overfull
-        if (children.size() > maxEntries) {
-            if (!hasReinserted) {
-                hasReinserted = true;
-                triggerReinsertion(maxEntries);
-            } else {
-                TreeInternalNode sibling = this.rstarSplit();
-
-                if (parent == null) {
-                    RStarTree.promoteRoot(this, sibling);
-                } else if (parent instanceof TreeInternalNode) {
-                    ((TreeInternalNode) parent).addSiblingAfterSplit(this, sibling);
-                } else {
-                    throw new IllegalStateException("Parent of TreeInternalNode is not TreeInternalNode!");
-                }
-            }
+    // One step of an insert descent: picks the child for the entry box, and grows
+    // this node's MBR and the chosen child's cached box to cover it (top-down adjust).
+    // The entry's point count and sums are added on the way down in the same way.
+    TreeNode descend(double[] entryMin, double[] entryMax, long entryCount, double[] entrySums, long epoch) {
+        int index = chooseSubtree(entryMin, entryMax);
+        int off = index * dimensions;
+        double[] min = mbr.getMin();
+        double[] max = mbr.getMax();
+        for (int d = 0; d < dimensions; d++) {
+            if (entryMin[d] < childMin[off + d]) childMin[off + d] = entryMin[d];
+            if (entryMax[d] > childMax[off + d]) childMax[off + d] = entryMax[d];
+            if (entryMin[d] < min[d]) min[d] = entryMin[d];
+            if (entryMax[d] > max[d]) max[d] = entryMax[d];
+            childSums[off + d] += entrySums[d];
+            sums[d] += entrySums[d];
         }
+        childCounts[index] += entryCount;
+        count += entryCount;
+        return writableChild(index, epoch);
     }
 
-    // Reinserts 30% of farthest children from center
-    private void triggerReinsertion(int maxEntries) {
+    // R* reinsertion: removes the `count` children whose centers are farthest from the
+    // MBR center and returns them detached, closest first (close reinsert)
+    List<TreeNode> removeFarthestChildren(int count) {
         int total = children.size();
-        int numToReinsert = (int) (0.3 * total);
 
         double[] ctr = mbr.getCenter();
-        List<Integer> idxList = new ArrayList<>();
-        for (int i = 0; i < total; i++) idxList.add(i);
-
-        idxList.sort((a, b) -> {
-            double distA = calcDistance(children.get(a).getMbr().getCenter(), ctr);
-            double distB = calcDistance(children.get(b).getMbr().getCenter(), ctr);
-            return Double.compare(distB, distA);
-        });
-
-        List<TreeNode> forReinsert = new ArrayList<>();
-        for (int i = 0; i < numToReinsert; i++) {
-            forReinsert.add(children.get(idxList.get(i)));
+        double[] negDist = new double[total];
+        for (int i = 0; i < total; i++) negDist[i] = -centerDistanceSq(i, ctr);
+
+        int[] idxList = IndexSorter.identity(total);
+        IndexSorter.sort(idxList, 0, total, negDist);
+
+        List<TreeNode> removedChildren = new ArrayList<>(count);
+        boolean[] removed = new boolean[total];
+        for (int i = count - 1; i >= 0; i--) {
+            TreeNode child = children.get(idxList[i]);
+            removedChildren.add(child);
+            removed[idxList[i]] = true;
         }
 
-        // Remove from children (descending order)
-        idxList.subList(0, numToReinsert).sort(Collections.reverseOrder());
-        for (int idx : idxList.subList(0, numToReinsert)) {
-            children.remove(idx);
+        // Remove from children, compacting the packed boxes alongside
+        int kept = 0;
+        for (int i = 0; i < total; i++) {
+            if (removed[i]) continue;
+            if (kept != i) {
+                children.set(kept, children.get(i));
+                System.arraycopy(childMin, i * dimensions, childMin, kept * dimensions, dimensions);
+                System.arraycopy(childMax, i * dimensions, childMax, kept * dimensions, dimensions);
+                System.arraycopy(childSums, i * dimensions, childSums, kept * dimensions, dimensions);
+                childCounts[kept] = childCounts[i];
+            }
+            kept++;
         }
+        children.subList(kept, total).clear();
 
         updateMBR();
-
-        for (TreeNode n : forReinsert) {
-            n.setParent(null);
-            recursivelyReinsertAllPoints(n, maxEntries);
-        }
+        return removedChildren;
     }
 
-    // Recursively reinsert all points of a subtree
-    private void recursivelyReinsertAllPoints(TreeNode n, int maxEntries) {
-        if (n.isLeaf()) {
-            TreeLeafNode leaf = (TreeLeafNode) n;
-            for (int i = 0; i < leaf.getPointCount(); i++) {
-                RStarTree.globalRoot.insert(leaf.getPoint(i), leaf.getRecordID(i), maxEntries);
-            }
-        } else {
-            TreeInternalNode branch = (TreeInternalNode) n;
-            for (TreeNode child : branch.getChildren()) {
-                recursivelyReinsertAllPoints(child, maxEntries);
-            }
-        }
+    // Re-reads a child's box and totals after it shrank and recomputes this node's MBR and
+    // totals; true if they changed
+    boolean childShrunk(TreeNode child) {
+        int index = children.indexOf(child);
+        if (index != -1) copyEntry(index, child);
+        return updateMBR();
     }
 
-    private double calcDistance(double[] a, double[] b) {
+    // Squared distance from the center of child i's box to p
+    private double centerDistanceSq(int i, double[] p) {
         double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double d = a[i] - b[i];
+        int off = i * dimensions;
+        for (int j = 0; j < dimensions; j++) {
+            double d = (childMin[off + j] + childMax[off + j]) / 2.0 - p[j];
             sum += d * d;
         }
-        return Math.sqrt(sum);
+        return sum;
     }
 
-    @Override
-    public boolean delete(double[] point, int maxEntries) {
-        MBR ptMBR = MBR.fromPoint(point);
-        boolean deletedSomewhere = false;
-
-        for (Iterator<TreeNode> it = children.iterator(); it.hasNext(); ) {
-            TreeNode child = it.next();
-            if (child.getMbr().intersects(ptMBR)) {
-                boolean deleted = child.delete(point, maxEntries);
-
-                // Remove empty children
-                if (deleted) {
-                    if (child.isLeaf() && ((TreeLeafNode) child).getPointCount() == 0) {
-                        it.remove();
-                    } else if (!child.isLeaf() && child.getChildren().isEmpty()) {
-                        it.remove();
-                    }
-                    deletedSomewhere = true;
-                }
-            }
-        }
+    // Removes a child (e.g. one left empty by a delete) and recomputes the MBR
+    void removeChild(TreeNode child) {
+        int index = children.indexOf(child);
+        if (index == -1) return;
+        removeChildAt(index);
         updateMBR();
-        return deletedSomewhere;
     }
 
-    // Add sibling node after split
+    // Returns child i, first replacing it by a private copy unless it already belongs
+    // to write operation `epoch` (copy-on-write path copying)
+    TreeNode writableChild(int index, long epoch) {
+        TreeNode child = children.get(index);
+        if (child.epoch == epoch) return child;
+        TreeNode copy = child.copyForWrite(epoch);
+        copy.setParent(this);
+        children.set(index, copy);
+        return copy;
+    }
+
+    @Override
+    TreeInternalNode copyForWrite(long epoch) {
+        TreeInternalNode copy = new TreeInternalNode(dimensions);
+        copy.children = new ArrayList<>(children);
+        copy.childMin = childMin == null ? null : childMin.clone();
+        copy.childMax = childMax == null ? null : childMax.clone();
+        copy.childCounts = childCounts == null ? null : childCounts.clone();
+        copy.childSums = childSums == null ? null : childSums.clone();
+        copy.count = count;
+        copy.sums = sums == null ? null : sums.clone();
+        copy.mbr = mbr == null ? null : mbr.copy();
+        copy.level = level;
+        copy.parent = parent;
+        copy.epoch = epoch;
+        return copy;
+    }
+
+    // Add sibling node after split (the totals stay the same: the sibling's points were
+    // counted under the original)
     public void addSiblingAfterSplit(TreeNode original, TreeNode sibling) {
         int index = children.indexOf(original);
         if (index != -1) {
-            children.add(index + 1, sibling);
+            insertChildAt(index + 1, sibling);
+            refreshChildBox(index, original);
         } else {
-            children.add(sibling);
+            insertChildAt(children.size(), sibling);
         }
-        sibling.setParent(this);
+        adopt(sibling);
         mbr.merge(sibling.getMbr());
     }
 
-    // Add a child node, update parent and mbr
+    // Add a child node, update parent, mbr and totals
     public void addChild(TreeNode child) {
-        children.add(child);
-        child.setParent(this);
+        insertChildAt(children.size(), child);
+        adopt(child);
 
         if (mbr == null) {
-            mbr = child.getMbr();
+            mbr = child.getMbr().copy();
+            sums = new double[dimensions];
         } else {
             mbr.merge(child.getMbr());
         }
+        count += child.getSubtreeCount();
+        for (int d = 0; d < dimensions; d++) sums[d] += child.getSubtreeSum(d);
     }
 
-    // Selects the child that causes the least enlargement
-    private TreeNode chooseSubtree(double[] point) {
-        TreeNode best = null;
+    // Inserts child at index and copies its box and totals into the packed arrays
+    private void insertChildAt(int index, TreeNode child) {
+        MBR box = child.getMbr();
+        insertChildAt(index, child, box.getMin(), box.getMax(), 0);
+        copyTotals(index, child);
+    }
+
+    // Inserts child at index with the box read from min/max at off (the totals are left
+    // for the caller to fill in)
+    private void insertChildAt(int index, TreeNode child, double[] min, double[] max, int off) {
+        if (childMin == null) {
+            dimensions = child.getMbr().getMin().length;
+            childMin = new double[INITIAL_CAPACITY * dimensions];
+            childMax = new double[INITIAL_CAPACITY * dimensions];
+            childCounts = new long[INITIAL_CAPACITY];
+            childSums = new double[INITIAL_CAPACITY * dimensions];
+        }
+        int entries = children.size();
+        if ((entries + 1) * dimensions > childMin.length) {
+            childMin = Arrays.copyOf(childMin, childMin.length * 2);
+            childMax = Arrays.copyOf(childMax, childMax.length * 2);
+            childSums = Arrays.copyOf(childSums, childSums.length * 2);
+            childCounts = Arrays.copyOf(childCounts, childCounts.length * 2);
+        }
+        int tail = (entries - index) * dimensions;
+        if (tail > 0) {
+            System.arraycopy(childMin, index * dimensions, childMin, (index + 1) * dimensions, tail);
+            System.arraycopy(childMax, index * dimensions, childMax, (index + 1) * dimensions, tail);
+            System.arraycopy(childSums, index * dimensions, childSums, (index + 1) * dimensions, tail);
+            System.arraycopy(childCounts, index, childCounts, index + 1, entries - index);
+        }
+        children.add(index, child);
+        System.arraycopy(min, off, childMin, index * dimensions, dimensions);
+        System.arraycopy(max, off, childMax, index * dimensions, dimensions);
+        level = child.getLevel() + 1;
+    }
+
+    // Removes the child at index together with its packed box and totals (the MBR and
+    // this node's totals are left as they are)
+    void removeChildAt(int index) {
+        int tail = (children.size() - index - 1) * dimensions;
+        if (tail > 0) {
+            System.arraycopy(childMin, (index + 1) * dimensions, childMin, index * dimensions, tail);
+            System.arraycopy(childMax, (index + 1) * dimensions, childMax, index * dimensions, tail);
+            System.arraycopy(childSums, (index + 1) * dimensions, childSums, index * dimensions, tail);
+            System.arraycopy(childCounts, index + 1, childCounts, index, children.size() - index - 1);
+        }
+        children.remove(index);
+    }
+
+    // Re-reads the box and totals of a child that may have changed
+    private void refreshChildBox(int index, TreeNode child) {
+        if (index >= children.size() || children.get(index) != child) {
+            index = children.indexOf(child);
+            if (index == -1) return;
+        }
+        copyEntry(index, child);
+    }
+
+    // Re-reads the box and totals of child i after it changed
+    void childChanged(int index) {
+        copyEntry(index, children.get(index));
+    }
+
+    private void copyEntry(int index, TreeNode child) {
+        MBR box = child.getMbr();
+        System.arraycopy(box.getMin(), 0, childMin, index * dimensions, dimensions);
+        System.arraycopy(box.getMax(), 0, childMax, index * dimensions, dimensions);
+        copyTotals(index, child);
+    }
+
+    private void copyTotals(int index, TreeNode child) {
+        childCounts[index] = child.getSubtreeCount();
+        for (int d = 0; d < dimensions; d++) childSums[index * dimensions + d] = child.getSubtreeSum(d);
+    }
+
+    // R* ChooseSubtree: least overlap enlargement when the children are leaves,
+    // least area enlargement otherwise
+    private int chooseSubtree(double[] entryMin, double[] entryMax) {
+        if (children.get(0).isLeaf()) {
+            return chooseLeastOverlapEnlargement(entryMin, entryMax);
+        }
+        return chooseLeastAreaEnlargement(entryMin, entryMax);
+    }
+
+    // Least area enlargement, ties resolved by smallest area
+    private int chooseLeastAreaEnlargement(double[] entryMin, double[] entryMax) {
+        int best = 0;
         double minEnlargement = Double.MAX_VALUE;
-        MBR ptMBR = MBR.fromPoint(point);
+        double minArea = Double.MAX_VALUE;
 
-        for (TreeNode child : children) {
-            double enlargement = child.getMbr().enlargement(ptMBR);
-            if (enlargement < minEnlargement) {
+        for (int i = 0; i < children.size(); i++) {
+            int off = i * dimensions;
+            double enlargement = MBR.enlargement(childMin, childMax, off, entryMin, entryMax, 0, dimensions);
+            if (enlargement > minEnlargement) continue;
+            double area = MBR.area(childMin, childMax, off, dimensions);
+            if (enlargement < minEnlargement || area < minArea) {
                 minEnlargement = enlargement;
-                best = child;
+                minArea = area;
+                best = i;
             }
         }
         return best;
     }
 
-    // Splits children into two groups, returns the new sibling
-    public TreeInternalNode rstarSplit() {
-        int total = children.size();
-        int dims = children.get(0).getMbr().getMin().length;
-        int minSplit = (int) Math.ceil(0.4 * total);
-        int maxSplit = total - minSplit;
-
-        double minOverlap = Double.MAX_VALUE;
-        double minArea = Double.MAX_VALUE;
-        TreeInternalNode bestLeft = null, bestRight = null;
-
-        for (int dim = 0; dim < dims; dim++) {
-            List<Integer> idxList = new ArrayList<>();
-            for (int i = 0; i < total; i++) idxList.add(i);
+    // Least overlap enlargement, ties resolved by least area enlargement, then smallest area.
+    // Only the OVERLAP_CANDIDATES children with least area enlargement are tested
+    // ("nearly minimum overlap"), each against all of its siblings.
+    private int chooseLeastOverlapEnlargement(double[] entryMin, double[] entryMax) {
+        int count = children.size();
+        ChooseScratch scratch = SCRATCH.get().ensure(count);
+        double[] enlargements = scratch.enlargements;
+        int[] candidates = scratch.candidates;
+
+        for (int i = 0; i < count; i++) {
+            enlargements[i] = MBR.enlargement(childMin, childMax, i * dimensions, entryMin, entryMax, 0, dimensions);
+            candidates[i] = i;
+        }
+        int candidateCount = count;
+        if (count > OVERLAP_CANDIDATES) {
+            IndexSorter.sort(candidates, 0, count, enlargements);
+            candidateCount = OVERLAP_CANDIDATES;
+        }
 
-            int currentDim = dim;
-            idxList.sort(Comparator.comparingDouble(i -> children.get(i).getMbr().getMin()[currentDim]));
+        int best = candidates[0];
+        double bestOverlap = Double.MAX_VALUE;
+        double bestEnlargement = Double.MAX_VALUE;
+        double bestArea = Double.MAX_VALUE;
+
+        for (int c = 0; c < candidateCount; c++) {
+            int i = candidates[c];
+            int off = i * dimensions;
+            double enlargement = enlargements[i];
+            double overlapDelta = 0.0;
+            if (enlargement > 0.0 || !covers(off, entryMin, entryMax)) {
+                for (int j = 0; j < count && overlapDelta <= bestOverlap; j++) {
+                    if (j == i) continue;
+                    overlapDelta += enlargedOverlap(off, entryMin, entryMax, j * dimensions)
+                            - MBR.overlap(childMin, childMax, off, childMin, childMax, j * dimensions, dimensions);
+                }
+            }
+            if (overlapDelta > bestOverlap) continue;
+
+            double area = MBR.area(childMin, childMax, off, dimensions);
+            if (overlapDelta < bestOverlap
+                    || enlargement < bestEnlargement
+                    || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestOverlap = overlapDelta;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
 
-            for (int k = minSplit; k <= maxSplit; k++) {
-                TreeInternalNode left = new TreeInternalNode();
-                TreeInternalNode right = new TreeInternalNode();
+    // Checks if the child box at off already covers the entry box
+    private boolean covers(int off, double[] entryMin, double[] entryMax) {
+        for (int d = 0; d < dimensions; d++) {
+            if (entryMin[d] < childMin[off + d] || entryMax[d] > childMax[off + d]) return false;
+        }
+        return true;
+    }
 
-                for (int i = 0; i < k; i++) left.addChild(children.get(idxList.get(i)));
-                for (int i = k; i < total; i++) right.addChild(children.get(idxList.get(i)));
+    // Overlap between child box at off grown to cover the entry box, and child box at otherOff
+    private double enlargedOverlap(int off, double[] entryMin, double[] entryMax, int otherOff) {
+        double overlap = 1.0;
+        for (int d = 0; d < dimensions; d++) {
+            double lo = Math.max(Math.min(childMin[off + d], entryMin[d]), childMin[otherOff + d]);
+            double hi = Math.min(Math.max(childMax[off + d], entryMax[d]), childMax[otherOff + d]);
+            if (lo > hi) return 0.0;
+            overlap *= (hi - lo);
+        }
+        return overlap;
+    }
 
-                double overlap = calcOverlap(left.getMbr(), right.getMbr());
-                double area = left.getMbr().area() + right.getMbr().area();
+    // Per-thread scratch arrays so that choosing a subtree never allocates
+    private static final class ChooseScratch {
+        double[] enlargements = new double[0];
+        int[] candidates = new int[0];
 
-                if (overlap < minOverlap || (overlap == minOverlap && area < minArea)) {
-                    minOverlap = overlap;
-                    minArea = area;
-                    bestLeft = left;
-                    bestRight = right;
-                }
+        ChooseScratch ensure(int count) {
+            if (candidates.length < count) {
+                enlargements = new double[count * 2];
+                candidates = new int[count * 2];
             }
+            return this;
         }
+    }
 
-        this.children = bestLeft.children;
-        this.mbr = bestLeft.getMbr();
-        for (TreeNode ch : children) ch.setParent(this);
+    // Returns the child a point would be routed to on insert
+    TreeNode chooseChild(double[] point) {
+        return children.get(chooseSubtree(point, point));
+    }
 
-        TreeInternalNode sibling = new TreeInternalNode();
-        sibling.children = bestRight.children;
-        sibling.mbr = bestRight.getMbr();
-        sibling.setParent(this.parent);
-        for (TreeNode ch : sibling.children) ch.setParent(sibling);
+    // Splits children into two groups, returns the new sibling
+    public TreeInternalNode rstarSplit() {
+        int total = children.size();
+        RStarSplit split = RStarSplit.compute(childMin, childMax, total, dimensions);
+        int[] order = split.order;
+
+        // The sibling takes its boxes from this node's cache rather than from the children,
+        // which may be growing under other writers' latches
+        TreeInternalNode sibling = new TreeInternalNode(dimensions);
+        sibling.epoch = epoch;
+        for (int i = split.splitIndex; i < total; i++) {
+            int idx = order[i];
+            TreeNode child = children.get(idx);
+            int at = sibling.children.size();
+            sibling.insertChildAt(at, child, childMin, childMax, idx * dimensions);
+            System.arraycopy(childSums, idx * dimensions, sibling.childSums, at * dimensions, dimensions);
+            sibling.childCounts[at] = childCounts[idx];
+            sibling.adopt(child);
+        }
+        sibling.updateMBR();
+
+        List<TreeNode> oldChildren = children;
+        double[] oldMin = childMin, oldMax = childMax, oldSums = childSums;
+        long[] oldCounts = childCounts;
+        children = new ArrayList<>(oldChildren.size());
+        childMin = new double[oldMin.length];
+        childMax = new double[oldMax.length];
+        childSums = new double[oldSums.length];
+        childCounts = new long[oldCounts.length];
+        for (int i = 0; i < split.splitIndex; i++) {
+            int idx = order[i];
+            System.arraycopy(oldMin, idx * dimensions, childMin, i * dimensions, dimensions);
+            System.arraycopy(oldMax, idx * dimensions, childMax, i * dimensions, dimensions);
+            System.arraycopy(oldSums, idx * dimensions, childSums, i * dimensions, dimensions);
+            childCounts[i] = oldCounts[idx];
+            children.add(oldChildren.get(idx));
+        }
+        updateMBR();
 
+        sibling.setParent(this.parent);
         return sibling;
     }
 
-    // Calculates overlap area between two MBRs
-    private double calcOverlap(MBR m1, MBR m2) {
-        double[] min = new double[m1.getMin().length];
-        double[] max = new double[m1.getMin().length];
-        for (int i = 0; i < min.length; i++) {
-            min[i] = Math.max(m1.getMin()[i], m2.getMin()[i]);
-            max[i] = Math.min(m1.getMax()[i], m2.getMax()[i]);
-            if (min[i] > max[i]) return 0.0;
+    // Recalculates the MBR and totals for this node from the packed child entries; true if
+    // either changed
+    boolean updateMBR() {
+        int entries = children.size();
+        if (entries == 0) {
+            boolean changed = mbr != null;
+            mbr = null;
+            sums = null;
+            count = 0;
+            return changed;
         }
-        double overlap = 1.0;
-        for (int i = 0; i < min.length; i++) {
-            overlap *= (max[i] - min[i]);
+        boolean changed = false;
+        if (mbr == null) {
+            mbr = new MBR(new double[dimensions], new double[dimensions]);
+            sums = new double[dimensions];
+            changed = true;
         }
-        return overlap;
+        double[] min = mbr.getMin();
+        double[] max = mbr.getMax();
+        for (int j = 0; j < dimensions; j++) {
+            double lo = childMin[j], hi = childMax[j], sum = childSums[j];
+            for (int off = dimensions + j; off < entries * dimensions; off += dimensions) {
+                if (childMin[off] < lo) lo = childMin[off];
+                if (childMax[off] > hi) hi = childMax[off];
+                sum += childSums[off];
+            }
+            if (lo != min[j] || hi != max[j] || sum != sums[j]) {
+                min[j] = lo;
+                max[j] = hi;
+                sums[j] = sum;
+                changed = true;
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < entries; i++) total += childCounts[i];
+        if (total != count) {
+            count = total;
+            changed = true;
+        }
+        return changed;
     }
 
-    // Recalculates the MBR for this node
-    private void updateMBR() {
-        if (children.isEmpty()) {
-            mbr = null;
-            return;
+    // The packed child boxes (stride = dimensions, first getChildCount() entries in use)
+    double[] packedMin() {
+        return childMin;
+    }
+
+    double[] packedMax() {
+        return childMax;
+    }
+
+    public int getChildCount() {
+        return children.size();
+    }
+
+    public TreeNode getChild(int index) {
+        return children.get(index);
+    }
+
+    // Checks the cached box of child i against a query box
+    public boolean childIntersects(int index, MBR query) {
+        return MBR.intersects(childMin, childMax, index * dimensions, query.getMin(), query.getMax(), 0, dimensions);
+    }
+
+    // Same, for a query box packed in min/max at off
+    boolean childIntersects(int index, double[] min, double[] max, int off) {
+        return MBR.intersects(childMin, childMax, index * dimensions, min, max, off, dimensions);
+    }
+
+    // Checks if the cached box of child i lies completely inside the query box
+    public boolean childWithin(int index, MBR query) {
+        double[] min = query.getMin();
+        double[] max = query.getMax();
+        int off = index * dimensions;
+        for (int d = 0; d < dimensions; d++) {
+            if (childMin[off + d] < min[d] || childMax[off + d] > max[d]) return false;
         }
-        mbr = children.get(0).getMbr();
-        for (int i = 1; i < children.size(); i++) {
-            mbr.merge(children.get(i).getMbr());
+        return true;
+    }
+
+    // Adds child i's cached box and totals to an aggregate, without visiting the child
+    void addChildTo(int index, RangeAggregate aggregate) {
+        int off = index * dimensions;
+        aggregate.addSubtree(childCounts[index], childSums, childMin, childMax, off);
+    }
+
+    // Expected number of child i's points inside the query, assuming they are spread evenly
+    // over the child's box
+    double estimateInside(int index, MBR query) {
+        double[] min = query.getMin();
+        double[] max = query.getMax();
+        int off = index * dimensions;
+        double fraction = 1.0;
+        for (int d = 0; d < dimensions; d++) {
+            double lo = Math.max(childMin[off + d], min[d]);
+            double hi = Math.min(childMax[off + d], max[d]);
+            if (lo > hi) return 0.0;
+            double extent = childMax[off + d] - childMin[off + d];
+            if (extent > 0.0) fraction *= (hi - lo) / extent;
         }
+        return childCounts[index] * fraction;
+    }
+
+    // Checks if the cached box of child i contains the point
+    public boolean childContains(int index, double[] point) {
+        return MBR.containsPoint(childMin, childMax, index * dimensions, point, dimensions);
+    }
+
+    // Squared minimum distance from a point to the cached box of child i
+    public double childMinDistanceSq(int index, double[] point) {
+        return MBR.minDistanceSq(childMin, childMax, index * dimensions, point, dimensions);
+    }
+
+    // Squared minimum distance from the box min/max to the cached box of child i
+    public double childMinDistanceSq(int index, double[] min, double[] max) {
+        return MBR.minDistanceSq(childMin, childMax, index * dimensions, min, max, 0, dimensions);
     }
-}
\ No newline at end of file
+}
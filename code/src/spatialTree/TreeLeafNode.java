@@ -1,25 +1,30 @@
 package spatialTree;
 
 import java.util.*;
+import java.util.function.BiPredicate;
 
-// Leaf node for R*-Tree, stores points and their TreeRecordIDs
+// Leaf node for R*-Tree, stores points and their TreeRecordIDs in packed arrays
 public class TreeLeafNode extends TreeNode {
 
-    private List<double[]> points;    // d-dimensional points
-    private List<TreeRecordID> pointers;  // Each point's record ID (block/slot)
-    private boolean hasReinserted = false; // R*-tree: flag for one-time reinsertion
+    private static final int INITIAL_CAPACITY = 8;
+
+    private double[] coords;   // d-dimensional points, packed (stride = dimensions)
+    private int[] blockIds;    // Each point's record block
+    private int[] slotIds;     // Each point's record slot
+    private int size;
 
     public TreeLeafNode() {
         super();
-        points = new ArrayList<>();
-        pointers = new ArrayList<>();
+        blockIds = new int[INITIAL_CAPACITY];
+        slotIds = new int[INITIAL_CAPACITY];
     }
 
     // For bulk loading
     public TreeLeafNode(int dims) {
         super(dims);
-        points = new ArrayList<>();
-        pointers = new ArrayList<>();
+        coords = new double[INITIAL_CAPACITY * dims];
+        blockIds = new int[INITIAL_CAPACITY];
+        slotIds = new int[INITIAL_CAPACITY];
     }
 
     @Override
@@ -32,214 +37,322 @@ public class TreeLeafNode extends TreeNode {
         return Collections.emptyList();
     }
 
-    // Insert a point & update MBR
     @Override
-    public void insert(double[] point, TreeRecordID rid, int maxEntries) {
-        points.add(point);
-        pointers.add(rid);
+    public int getEntryCount() {
+        return size;
+    }
+
+    @Override
+    public long getSubtreeCount() {
+        return size;
+    }
+
+    // Bulk loading: a leaf filled directly with entries order[from, to) of packed points and
+    // record ids, its MBR computed once
+    static TreeLeafNode fromPacked(double[] points, int[] blocks, int[] slots, int[] order, int from, int to, int dims) {
+        int count = to - from;
+        TreeLeafNode leaf = new TreeLeafNode(dims);
+        leaf.coords = new double[Math.max(count, INITIAL_CAPACITY) * dims];
+        leaf.blockIds = new int[Math.max(count, INITIAL_CAPACITY)];
+        leaf.slotIds = new int[Math.max(count, INITIAL_CAPACITY)];
+        for (int i = 0; i < count; i++) {
+            int src = order[from + i];
+            System.arraycopy(points, src * dims, leaf.coords, i * dims, dims);
+            leaf.blockIds[i] = blocks[src];
+            leaf.slotIds[i] = slots[src];
+        }
+        leaf.size = count;
+        leaf.recalculateMBR();
+        return leaf;
+    }
+
+    // Add a point & update MBR (overflow is handled by the tree)
+    public void addEntry(double[] point, TreeRecordID rid) {
+        addEntry(point, rid.getBlockId(), rid.getSlotId());
+    }
+
+    void addEntry(double[] point, int blockId, int slotId) {
+        append(point, 0, blockId, slotId);
 
         if (mbr == null) {
             mbr = MBR.fromPoint(point);
         } else {
-            mbr.merge(MBR.fromPoint(point));
-        }
-
-        if (points.size() > maxEntries) {
-            if (!hasReinserted) {
-                hasReinserted = true;
-                performReinsertion(maxEntries);
-            } else {
-                TreeLeafNode sibling = this.rstarSplit();
-
-                if (parent == null) {
-                    RStarTree.promoteRoot(this, sibling);
-                    return;
-                }
-
-                if (parent instanceof TreeInternalNode) {
-                    ((TreeInternalNode) parent).addSiblingAfterSplit(this, sibling);
-                } else {
-                    throw new IllegalStateException("Parent of TreeLeafNode is not TreeInternalNode.");
-                }
-            }
+            mbr.include(point);
+        }
+        if (sums == null) sums = new double[dimensions];
+        for (int d = 0; d < dimensions; d++) sums[d] += point[d];
+    }
+
+    // Appends an entry read from src[from, from + dimensions)
+    private void append(double[] src, int from, int blockId, int slotId) {
+        if (coords == null) {
+            dimensions = src.length - from;
+            coords = new double[blockIds.length * dimensions];
+        }
+        if (size == blockIds.length) {
+            int newCapacity = size * 2;
+            coords = Arrays.copyOf(coords, newCapacity * dimensions);
+            blockIds = Arrays.copyOf(blockIds, newCapacity);
+            slotIds = Arrays.copyOf(slotIds, newCapacity);
         }
+        System.arraycopy(src, from, coords, size * dimensions, dimensions);
+        blockIds[size] = blockId;
+        slotIds[size] = slotId;
+        size++;
     }
 
-    // Remove 30% of farthest points and reinsert them
-    private void performReinsertion(int maxEntries) {
-        int total = points.size();
-        int reinsertionCount = (int) (0.3 * total);
+    // R* reinsertion: removes the `count` points farthest from the MBR center and returns
+    // them as a detached leaf, closest first (close reinsert)
+    TreeLeafNode removeFarthestEntries(int count) {
+        int total = size;
 
         double[] center = mbr.getCenter();
-        List<Integer> idxs = new ArrayList<>();
-        for (int i = 0; i < total; i++) idxs.add(i);
+        double[] negDist = new double[total];
+        for (int i = 0; i < total; i++) negDist[i] = -squaredDistance(i, center);
 
         // Sort by descending distance from center
-        idxs.sort((a, b) -> {
-            double distA = distance(points.get(a), center);
-            double distB = distance(points.get(b), center);
-            return Double.compare(distB, distA);
-        });
-
-        List<double[]> reinPoints = new ArrayList<>();
-        List<TreeRecordID> reinRids = new ArrayList<>();
-        for (int i = 0; i < reinsertionCount; i++) {
-            reinPoints.add(points.get(idxs.get(i)));
-            reinRids.add(pointers.get(idxs.get(i)));
+        int[] idxs = IndexSorter.identity(total);
+        IndexSorter.sort(idxs, 0, total, negDist);
+
+        TreeLeafNode removedEntries = new TreeLeafNode(dimensions);
+        boolean[] removed = new boolean[total];
+        for (int i = count - 1; i >= 0; i--) {
+            int idx = idxs[i];
+            removedEntries.append(coords, idx * dimensions, blockIds[idx], slotIds[idx]);
+            removed[idx] = true;
         }
 
-        // Remove (in reverse order)
-        idxs.subList(0, reinsertionCount).sort(Collections.reverseOrder());
-        for (int idx : idxs.subList(0, reinsertionCount)) {
-            points.remove(idx);
-            pointers.remove(idx);
+        // Compact the remaining entries in place
+        int kept = 0;
+        for (int i = 0; i < total; i++) {
+            if (!removed[i]) moveEntry(i, kept++);
         }
+        size = kept;
 
         recalculateMBR();
+        return removedEntries;
+    }
 
-        // Reinsert removed points
-        for (int i = 0; i < reinPoints.size(); i++) {
-            if (parent == null) {
-                this.insert(reinPoints.get(i), reinRids.get(i), maxEntries);
-            } else {
-                parent.insert(reinPoints.get(i), reinRids.get(i), maxEntries);
-            }
+    // Copies entry `from` over entry `to`
+    private void moveEntry(int from, int to) {
+        if (from == to) return;
+        System.arraycopy(coords, from * dimensions, coords, to * dimensions, dimensions);
+        blockIds[to] = blockIds[from];
+        slotIds[to] = slotIds[from];
+    }
+
+    // Removes the entry at index, keeping the order of the rest
+    private void removeAt(int index) {
+        int tail = size - index - 1;
+        if (tail > 0) {
+            System.arraycopy(coords, (index + 1) * dimensions, coords, index * dimensions, tail * dimensions);
+            System.arraycopy(blockIds, index + 1, blockIds, index, tail);
+            System.arraycopy(slotIds, index + 1, slotIds, index, tail);
         }
+        size--;
     }
 
-    // Euclidean distance helper
-    private double distance(double[] a, double[] b) {
+    // Squared Euclidean distance from the entry at index to q
+    double squaredDistance(int index, double[] q) {
         double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            double d = a[i] - b[i];
+        int off = index * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            double d = coords[off + i] - q[i];
             sum += d * d;
         }
-        return Math.sqrt(sum);
+        return sum;
     }
 
-    // Checks if two points are equal (epsilon)
-    private boolean pointsEqual(double[] a, double[] b) {
-        if (a.length != b.length) return false;
-        for (int i = 0; i < a.length; i++) {
-            if (Math.abs(a[i] - b[i]) > 1e-7) return false;
+    // Checks if the entry at index equals the point (epsilon)
+    private boolean pointEquals(int index, double[] point) {
+        if (point.length != dimensions) return false;
+        int off = index * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            if (Math.abs(coords[off + i] - point[i]) > 1e-7) return false;
         }
         return true;
     }
 
-    @Override
-    public boolean delete(double[] point, int maxEntries) {
-        for (int i = 0; i < points.size(); i++) {
-            if (pointsEqual(points.get(i), point)) {
-                points.remove(i);
-                pointers.remove(i);
-                recalculateMBR();
-                return true;
+    // Index of the first entry equal to the point (epsilon), or -1
+    int indexOf(double[] point) {
+        for (int i = 0; i < size; i++) {
+            if (pointEquals(i, point)) return i;
+        }
+        return -1;
+    }
+
+    // Index of the first entry equal to the point with the given record id (any id if null), or -1
+    int indexOf(double[] point, TreeRecordID rid) {
+        if (rid == null) return indexOf(point);
+        for (int i = 0; i < size; i++) {
+            if (blockIds[i] == rid.getBlockId() && slotIds[i] == rid.getSlotId() && pointEquals(i, point)) return i;
+        }
+        return -1;
+    }
+
+    // Index of the entry with this record id, or -1
+    int indexOfRecord(int blockId, int slotId) {
+        for (int i = 0; i < size; i++) {
+            if (blockIds[i] == blockId && slotIds[i] == slotId) return i;
+        }
+        return -1;
+    }
+
+    // Moves entry index to a new position (the caller keeps it inside the MBR or handles
+    // the growth); true if the MBR or the sums changed
+    boolean setPoint(int index, double[] point) {
+        System.arraycopy(point, 0, coords, index * dimensions, dimensions);
+        return recalculateMBR();
+    }
+
+    // Removes the entry at index and shrinks the MBR
+    void removeEntry(int index) {
+        removeAt(index);
+        recalculateMBR();
+    }
+
+    // Removes every entry inside region that the filter (if any) accepts; returns how many.
+    // The removed ids are added to removedIds unless it is null.
+    int removeIf(MBR region, BiPredicate<double[], TreeRecordID> filter, List<TreeRecordID> removedIds) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            boolean remove = isPointInside(i, region)
+                    && (filter == null || filter.test(getPoint(i), getRecordID(i)));
+            if (!remove) {
+                moveEntry(i, kept++);
+            } else if (removedIds != null) {
+                removedIds.add(getRecordID(i));
             }
         }
-        return false;
+        int removed = size - kept;
+        if (removed > 0) {
+            size = kept;
+            recalculateMBR();
+        }
+        return removed;
+    }
+
+    @Override
+    TreeLeafNode copyForWrite(long epoch) {
+        TreeLeafNode copy = new TreeLeafNode(dimensions);
+        copy.coords = coords == null ? null : coords.clone();
+        copy.blockIds = blockIds.clone();
+        copy.slotIds = slotIds.clone();
+        copy.size = size;
+        copy.mbr = mbr == null ? null : mbr.copy();
+        copy.sums = sums == null ? null : sums.clone();
+        copy.parent = parent;
+        copy.epoch = epoch;
+        return copy;
     }
 
     // Split when leaf is full: returns new sibling node
     public TreeLeafNode rstarSplit() {
-        int total = points.size();
-        int d = points.get(0).length;
-        int minSplit = (int) Math.ceil(0.4 * total);
-        int maxSplit = total - minSplit;
-
-        double minOverlap = Double.MAX_VALUE;
-        double minArea = Double.MAX_VALUE;
-        TreeLeafNode bestLeft = null, bestRight = null;
-
-        for (int dim = 0; dim < d; dim++) {
-            List<Integer> idxs = new ArrayList<>();
-            for (int i = 0; i < total; i++) idxs.add(i);
-
-            int finalDim = dim;
-            idxs.sort(Comparator.comparingDouble(i -> points.get(i)[finalDim]));
-
-            for (int k = minSplit; k <= maxSplit; k++) {
-                TreeLeafNode left = new TreeLeafNode();
-                TreeLeafNode right = new TreeLeafNode();
-
-                for (int i = 0; i < k; i++) {
-                    int idx = idxs.get(i);
-                    left.points.add(points.get(idx));
-                    left.pointers.add(pointers.get(idx));
-                    if (left.mbr == null) left.mbr = MBR.fromPoint(points.get(idx));
-                    else left.mbr.merge(MBR.fromPoint(points.get(idx)));
-                }
-
-                for (int i = k; i < total; i++) {
-                    int idx = idxs.get(i);
-                    right.points.add(points.get(idx));
-                    right.pointers.add(pointers.get(idx));
-                    if (right.mbr == null) right.mbr = MBR.fromPoint(points.get(idx));
-                    else right.mbr.merge(MBR.fromPoint(points.get(idx)));
-                }
-
-                double overlap = computeOverlap(left.mbr, right.mbr);
-                double area = left.mbr.area() + right.mbr.area();
-
-                if (overlap < minOverlap || (overlap == minOverlap && area < minArea)) {
-                    minOverlap = overlap;
-                    minArea = area;
-                    bestLeft = left;
-                    bestRight = right;
-                }
-            }
+        int total = size;
+        int d = dimensions;
+        RStarSplit split = RStarSplit.compute(coords, coords, total, d);
+        int[] order = split.order;
+
+        // Only the winning distribution is materialised
+        TreeLeafNode sibling = new TreeLeafNode(d);
+        sibling.epoch = epoch;
+        for (int i = split.splitIndex; i < total; i++) {
+            int idx = order[i];
+            sibling.append(coords, idx * d, blockIds[idx], slotIds[idx]);
         }
 
-        this.points = bestLeft.points;
-        this.pointers = bestLeft.pointers;
-        this.mbr = bestLeft.mbr;
+        double[] oldCoords = coords;
+        int[] oldBlocks = blockIds, oldSlots = slotIds;
+        coords = new double[oldCoords.length];
+        blockIds = new int[oldBlocks.length];
+        slotIds = new int[oldSlots.length];
+        size = 0;
+        for (int i = 0; i < split.splitIndex; i++) {
+            int idx = order[i];
+            append(oldCoords, idx * d, oldBlocks[idx], oldSlots[idx]);
+        }
 
-        TreeLeafNode sibling = new TreeLeafNode();
-        sibling.points = bestRight.points;
-        sibling.pointers = bestRight.pointers;
-        sibling.mbr = bestRight.mbr;
+        recalculateMBR();
+        sibling.recalculateMBR();
         sibling.setParent(this.parent);
 
         return sibling;
     }
 
-    // Calculates overlap area between two MBRs
-    private double computeOverlap(MBR m1, MBR m2) {
-        double[] min = new double[m1.getMin().length];
-        double[] max = new double[m1.getMin().length];
-        for (int i = 0; i < min.length; i++) {
-            min[i] = Math.max(m1.getMin()[i], m2.getMin()[i]);
-            max[i] = Math.min(m1.getMax()[i], m2.getMax()[i]);
-            if (min[i] > max[i]) return 0.0;
-        }
-        double overlap = 1.0;
-        for (int i = 0; i < min.length; i++) {
-            overlap *= (max[i] - min[i]);
-        }
-        return overlap;
-    }
-
-    // Recompute MBR after deletion
-    private void recalculateMBR() {
-        if (points.isEmpty()) {
+    // Recompute MBR and sums after deletion; true if either changed
+    private boolean recalculateMBR() {
+        if (size == 0) {
+            boolean changed = mbr != null;
             mbr = null;
-            return;
+            sums = null;
+            return changed;
         }
 
-        mbr = MBR.fromPoint(points.get(0));
-        for (int i = 1; i < points.size(); i++) {
-            mbr.merge(MBR.fromPoint(points.get(i)));
+        boolean changed = false;
+        if (mbr == null) {
+            mbr = new MBR(new double[dimensions], new double[dimensions]);
+            sums = new double[dimensions];
+            changed = true;
         }
+        double[] min = mbr.getMin();
+        double[] max = mbr.getMax();
+        for (int j = 0; j < dimensions; j++) {
+            double lo = coords[j], hi = coords[j], sum = coords[j];
+            for (int off = dimensions + j; off < size * dimensions; off += dimensions) {
+                double v = coords[off];
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+                sum += v;
+            }
+            if (lo != min[j] || hi != max[j] || sum != sums[j]) {
+                min[j] = lo;
+                max[j] = hi;
+                sums[j] = sum;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // The packed points (stride = dimensions, first getPointCount() entries in use)
+    double[] packedCoords() {
+        return coords;
     }
 
     public int getPointCount() {
-        return points.size();
+        return size;
     }
 
+    // Returns a copy of the point at index
     public double[] getPoint(int index) {
-        return points.get(index);
+        int off = index * dimensions;
+        return Arrays.copyOfRange(coords, off, off + dimensions);
+    }
+
+    // Reads a single coordinate without copying the point
+    public double getCoordinate(int index, int dim) {
+        return coords[index * dimensions + dim];
     }
 
     public TreeRecordID getRecordID(int index) {
-        return pointers.get(index);
+        return new TreeRecordID(blockIds[index], slotIds[index]);
+    }
+
+    public int getBlockId(int index) {
+        return blockIds[index];
+    }
+
+    public int getSlotId(int index) {
+        return slotIds[index];
+    }
+
+    // Checks if the point at index lies inside the box
+    public boolean isPointInside(int index, MBR box) {
+        return MBR.intersects(coords, coords, index * dimensions, box.getMin(), box.getMax(), 0, dimensions);
+    }
+
+    // Same, for a box packed in min/max at off
+    boolean isPointInside(int index, double[] min, double[] max, int off) {
+        return MBR.intersects(coords, coords, index * dimensions, min, max, off, dimensions);
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package spatialTree;
 
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 // Abstract base class for R*-Tree nodes (internal & leaf nodes)
 public abstract class TreeNode {
@@ -8,6 +9,10 @@ public abstract class TreeNode {
     protected MBR mbr;
     protected TreeNode parent;
     protected int dimensions;
+    protected int level; // 0 for leaves, parent level = child level + 1
+    long epoch;          // write operation that created this copy (copy-on-write mode)
+    ReentrantLock latch; // only set in trees with concurrent writers
+    double[] sums;       // per-dimension sums of the points in this subtree (null while empty)
 
     public TreeNode() {}
 
@@ -25,19 +30,42 @@ public abstract class TreeNode {
         this.parent = parent;
     }
 
+    // Null for the root, and for every node a copy-on-write tree has published (those are
+    // shared by several versions; see RStarTree.publish)
     public TreeNode getParent() {
         return parent;
     }
 
+    // Links child to this node, unless the child belongs to an earlier write: in copy-on-write
+    // mode such a node is published and is never changed (the write that copies it links
+    // the copy, see TreeInternalNode.writableChild)
+    void adopt(TreeNode child) {
+        if (child.epoch == epoch) child.parent = this;
+    }
+
+    // Height of this node above the leaves
+    public int getLevel() {
+        return level;
+    }
+
     // True if this is a leaf node
     public abstract boolean isLeaf();
 
     // Returns node's children (empty for leaf)
     public abstract List<TreeNode> getChildren();
 
-    // Insert a point and its record ID
-    public abstract void insert(double[] point, TreeRecordID rid, int maxEntries);
+    // Number of entries (points for a leaf, children otherwise)
+    public abstract int getEntryCount();
+
+    // Number of points in this subtree
+    public abstract long getSubtreeCount();
+
+    // Sum of coordinate `dim` over the points in this subtree
+    public double getSubtreeSum(int dim) {
+        return sums == null ? 0.0 : sums[dim];
+    }
 
-    // Delete a point from the node
-    public abstract boolean delete(double[] point, int maxEntries);
-}
\ No newline at end of file
+    // Returns a private copy of this node for write operation `epoch`; the children
+    // (if any) are shared with the original and keep their parent links
+    abstract TreeNode copyForWrite(long epoch);
+}
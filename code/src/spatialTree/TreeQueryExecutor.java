@@ -2,95 +2,325 @@ package spatialTree;
 
 import domain.DataRecord;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
-// Brute-force executor for range, k-NN, and skyline queries on DataRecord lists
+// Scan executor for range, k-NN, and skyline queries on DataRecord lists: the correctness
+// oracle for the tree, and the fallback when a query selects most of the data. Dimensions
+// are, in order, lat, lon, id, uid and changeset. Every query also takes a pool that scans
+// the list in chunks (null: on this thread); results are the same either way.
 public class TreeQueryExecutor {
 
-    // Brute-force skyline (non-dominated records)
+    private static final int MAX_DIMENSIONS = 5; // lat, lon, id, uid, changeset
+    private static final int SCAN_GRAIN = 16384;  // records per parallel chunk
+    private static final int FILTER_SIZE = 8;     // low-score records that screen the rest before the sort
+
+    // ------------------ SKYLINE ------------------
+
+    // Skyline (non-dominated records), in list order
     public static List<DataRecord> skyline(List<DataRecord> records, int dimensions) {
-        List<DataRecord> skyline = new ArrayList<>();
-        for (int i = 0; i < records.size(); i++) {
-            DataRecord a = records.get(i);
-            boolean dominated = false;
-            for (int j = 0; j < records.size(); j++) {
-                if (i == j) continue;
-                DataRecord b = records.get(j);
-                if (dominates(b, a, dimensions)) {
-                    dominated = true;
-                    break;
-                }
+        return skyline(records, dimensions, null);
+    }
+
+    // Sort-filter skyline: records are scanned in order of the sum of their coordinates, so
+    // none can be dominated by a later one, and each is checked only against the skyline
+    // found so far. Before the sort, a pass over the list drops the records dominated by a
+    // few low-score ones seen so far (as in LESS), which on most data leaves little to sort.
+    // With a pool, every chunk of the list gets its own skyline in parallel, and the skyline
+    // of their union is the answer.
+    public static List<DataRecord> skyline(List<DataRecord> records, int dimensions, ForkJoinPool pool) {
+        int n = records.size();
+        int dims = Math.min(dimensions, MAX_DIMENSIONS);
+        double[] coords = coordinates(records, dims, pool);
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) scores[i] = sum(coords, i * dims, dims);
+
+        int[] order = IndexSorter.identity(n);
+        int chunks = pool == null ? 1 : Math.max(1, (n + SCAN_GRAIN - 1) / SCAN_GRAIN);
+        int[][] local = new int[chunks][];
+        Parallel.forRange(pool, 0, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                int start = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks);
+                int kept = eliminate(order, start, end, coords, scores, dims);
+                IndexSorter.sort(order, start, kept, scores, 1, 0);
+                local[c] = sortFilter(Arrays.copyOfRange(order, start, kept), coords, scores, dims);
             }
-            if (!dominated) {
-                skyline.add(a);
+        });
+
+        int[] survivors = local[0];
+        if (chunks > 1) {
+            int total = 0;
+            for (int[] part : local) total += part.length;
+            survivors = new int[total];
+            int at = 0;
+            for (int[] part : local) {
+                System.arraycopy(part, 0, survivors, at, part.length);
+                at += part.length;
             }
+            IndexSorter.sort(survivors, 0, total, scores, 1, 0);
+            survivors = sortFilter(survivors, coords, scores, dims);
         }
+
+        Arrays.sort(survivors);
+        List<DataRecord> skyline = new ArrayList<>(survivors.length);
+        for (int i : survivors) skyline.add(records.get(i));
         return skyline;
     }
 
-    // Returns true if a dominates b in the given dimensions
-    private static boolean dominates(DataRecord a, DataRecord b, int dimensions) {
+    // Moves the records of idx[from, to) that no filter record dominates to the front, and
+    // returns where they end. The filter holds the lowest-score records that passed so far.
+    private static int eliminate(int[] idx, int from, int to, double[] coords, double[] scores, int dims) {
+        int[] filter = new int[FILTER_SIZE];
+        int size = 0, kept = from;
+        for (int i = from; i < to; i++) {
+            int candidate = idx[i];
+            int off = candidate * dims;
+            boolean dominated = false;
+            for (int f = 0; f < size && !dominated; f++) {
+                dominated = dominates(coords, filter[f] * dims, coords, off, dims);
+            }
+            if (dominated) continue;
+            idx[kept++] = candidate;
+
+            if (size < FILTER_SIZE) {
+                filter[size++] = candidate;
+                continue;
+            }
+            int worst = 0;
+            for (int f = 1; f < size; f++) {
+                if (scores[filter[f]] > scores[filter[worst]]) worst = f;
+            }
+            if (scores[candidate] < scores[filter[worst]]) filter[worst] = candidate;
+        }
+        return kept;
+    }
+
+    // Skyline of the records in `sorted` (ordered by score). A window record that dominates a
+    // candidate moves to the front, where it is tried first on the next one. Dominance implies
+    // a strictly smaller score, but rounding can make the sums equal, so kept records with the
+    // same score that a new one dominates are dropped again.
+    private static int[] sortFilter(int[] sorted, double[] coords, double[] scores, int dims) {
+        int[] window = new int[Math.min(sorted.length, 16)];
+        int size = 0;
+        for (int candidate : sorted) {
+            int off = candidate * dims;
+            int dominator = -1;
+            for (int w = 0; w < size && dominator < 0; w++) {
+                if (dominates(coords, window[w] * dims, coords, off, dims)) dominator = w;
+            }
+            if (dominator > 0) {
+                int front = window[dominator];
+                window[dominator] = window[0];
+                window[0] = front;
+            }
+            if (dominator >= 0) continue;
+
+            int keep = 0;
+            for (int w = 0; w < size; w++) {
+                if (scores[window[w]] != scores[candidate] || !dominates(coords, off, coords, window[w] * dims, dims)) {
+                    window[keep++] = window[w];
+                }
+            }
+            size = keep;
+            if (size == window.length) window = Arrays.copyOf(window, size * 2);
+            window[size++] = candidate;
+        }
+        return Arrays.copyOf(window, size);
+    }
+
+    // Returns true if the point at aOff dominates the point at bOff
+    private static boolean dominates(double[] a, int aOff, double[] b, int bOff, int dims) {
         boolean strictlyBetter = false;
-        if (dimensions >= 1 && a.getLat() > b.getLat()) return false;
-        if (dimensions >= 1 && a.getLat() < b.getLat()) strictlyBetter = true;
-        if (dimensions >= 2 && a.getLon() > b.getLon()) return false;
-        if (dimensions >= 2 && a.getLon() < b.getLon()) strictlyBetter = true;
-        if (dimensions >= 3 && a.getId() > b.getId()) return false;
-        if (dimensions >= 3 && a.getId() < b.getId()) strictlyBetter = true;
-        if (dimensions >= 4 && a.getUid() > b.getUid()) return false;
-        if (dimensions >= 4 && a.getUid() < b.getUid()) strictlyBetter = true;
-        if (dimensions >= 5 && a.getChangeset() > b.getChangeset()) return false;
-        if (dimensions >= 5 && a.getChangeset() < b.getChangeset()) strictlyBetter = true;
+        for (int d = 0; d < dims; d++) {
+            if (a[aOff + d] > b[bOff + d]) return false;
+            if (a[aOff + d] < b[bOff + d]) strictlyBetter = true;
+        }
         return strictlyBetter;
     }
 
-    // Brute-force range query in d dimensions (min/max arrays)
+    // ------------------ RANGE QUERY ------------------
+
+    // Range query in d dimensions (min/max arrays), in list order
     public static List<DataRecord> rangeQuery(List<DataRecord> records, double[] min, double[] max, int dimensions) {
-        List<DataRecord> result = new ArrayList<>();
-        for (DataRecord r : records) {
-            boolean inside = true;
-            if (dimensions >= 1 && (r.getLat() < min[0] || r.getLat() > max[0])) inside = false;
-            if (dimensions >= 2 && (r.getLon() < min[1] || r.getLon() > max[1])) inside = false;
-            if (dimensions >= 3 && (r.getId() < min[2] || r.getId() > max[2])) inside = false;
-            if (dimensions >= 4 && (r.getUid() < min[3] || r.getUid() > max[3])) inside = false;
-            if (dimensions >= 5 && (r.getChangeset() < min[4] || r.getChangeset() > max[4])) inside = false;
-            if (inside) result.add(r);
+        return rangeQuery(records, min, max, dimensions, null);
+    }
+
+    public static List<DataRecord> rangeQuery(List<DataRecord> records, double[] min, double[] max, int dimensions,
+                                              ForkJoinPool pool) {
+        int n = records.size();
+        int dims = Math.min(dimensions, MAX_DIMENSIONS);
+        if (pool == null) {
+            List<DataRecord> result = new ArrayList<>();
+            for (DataRecord r : records) {
+                if (inside(r, min, max, dims)) result.add(r);
+            }
+            return result;
         }
+
+        int chunks = Math.max(1, (n + SCAN_GRAIN - 1) / SCAN_GRAIN);
+        List<List<DataRecord>> parts = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) parts.add(new ArrayList<>());
+        Parallel.forRange(pool, 0, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                List<DataRecord> part = parts.get(c);
+                int end = Math.min(n, (c + 1) * SCAN_GRAIN);
+                for (int i = c * SCAN_GRAIN; i < end; i++) {
+                    DataRecord r = records.get(i);
+                    if (inside(r, min, max, dims)) part.add(r);
+                }
+            }
+        });
+        int total = 0;
+        for (List<DataRecord> part : parts) total += part.size();
+        List<DataRecord> result = new ArrayList<>(total);
+        for (List<DataRecord> part : parts) result.addAll(part);
         return result;
     }
 
-    // Brute-force k nearest neighbors (Euclidean distance)
-    public static List<DataRecord> kNearestNeighbors(List<DataRecord> records, double[] queryPoint, int k, int dimensions) {
-        List<RecordDist> dists = new ArrayList<>();
-        for (DataRecord r : records) {
-            double dist = euclideanDistance(r, queryPoint, dimensions);
-            dists.add(new RecordDist(r, dist));
+    // Checks the dimensions one by one, stopping at the first that rules the record out
+    private static boolean inside(DataRecord r, double[] min, double[] max, int dims) {
+        for (int d = 0; d < dims; d++) {
+            double v = coordinate(r, d);
+            if (v < min[d] || v > max[d]) return false;
         }
-        dists.sort(Comparator.comparingDouble(a -> a.dist));
-        List<DataRecord> result = new ArrayList<>();
-        for (int i = 0; i < Math.min(k, dists.size()); i++) {
-            result.add(dists.get(i).record);
+        return true;
+    }
+
+    // ------------------ KNN QUERY ------------------
+
+    // k nearest neighbors (Euclidean distance), closest first; equal distances keep list order
+    public static List<DataRecord> kNearestNeighbors(List<DataRecord> records, double[] queryPoint, int k, int dimensions) {
+        return kNearestNeighbors(records, queryPoint, k, dimensions, null);
+    }
+
+    // One scan keeping the best k in a bounded heap (per chunk with a pool, merged at the end)
+    public static List<DataRecord> kNearestNeighbors(List<DataRecord> records, double[] queryPoint, int k, int dimensions,
+                                                     ForkJoinPool pool) {
+        int n = records.size();
+        k = Math.min(k, n);
+        if (k <= 0) return new ArrayList<>();
+        int dims = Math.min(dimensions, MAX_DIMENSIONS);
+        int kk = k;
+
+        int chunks = pool == null ? 1 : Math.max(1, (n + SCAN_GRAIN - 1) / SCAN_GRAIN);
+        BoundedHeap[] heaps = new BoundedHeap[chunks];
+        Parallel.forRange(pool, 0, chunks, 1, (from, to) -> {
+            for (int c = from; c < to; c++) {
+                BoundedHeap heap = new BoundedHeap(kk);
+                int start = (int) ((long) n * c / chunks), end = (int) ((long) n * (c + 1) / chunks);
+                for (int i = start; i < end; i++) {
+                    heap.offer(squaredDistance(records.get(i), queryPoint, dims), i);
+                }
+                heaps[c] = heap;
+            }
+        });
+
+        BoundedHeap best = heaps[0];
+        for (int c = 1; c < chunks; c++) {
+            for (int j = 0; j < heaps[c].size; j++) best.offer(heaps[c].keys[j], heaps[c].ids[j]);
         }
+        int[] nearest = best.drainSorted();
+        List<DataRecord> result = new ArrayList<>(nearest.length);
+        for (int i : nearest) result.add(records.get(i));
         return result;
     }
 
-    // Euclidean distance helper
-    private static double euclideanDistance(DataRecord r, double[] q, int dimensions) {
+    private static double squaredDistance(DataRecord r, double[] q, int dims) {
         double sum = 0.0;
-        if (dimensions >= 1) sum += Math.pow(r.getLat() - q[0], 2);
-        if (dimensions >= 2) sum += Math.pow(r.getLon() - q[1], 2);
-        if (dimensions >= 3) sum += Math.pow(r.getId() - q[2], 2);
-        if (dimensions >= 4) sum += Math.pow(r.getUid() - q[3], 2);
-        if (dimensions >= 5) sum += Math.pow(r.getChangeset() - q[4], 2);
-        return Math.sqrt(sum);
+        for (int d = 0; d < dims; d++) {
+            double diff = coordinate(r, d) - q[d];
+            sum += diff * diff;
+        }
+        return sum;
     }
 
-    // Helper class for kNN
-    private static class RecordDist {
-        DataRecord record;
-        double dist;
-        RecordDist(DataRecord record, double dist) {
-            this.record = record;
-            this.dist = dist;
+    // The k smallest (distance, index) pairs seen, in a max-heap over parallel arrays; ties on
+    // distance go to the lower index, as a stable sort of the whole list would
+    private static final class BoundedHeap {
+        final double[] keys;
+        final int[] ids;
+        int size;
+
+        BoundedHeap(int k) {
+            keys = new double[k];
+            ids = new int[k];
+        }
+
+        void offer(double key, int id) {
+            if (size < keys.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!after(key, id, keys[parent], ids[parent])) break;
+                    keys[i] = keys[parent];
+                    ids[i] = ids[parent];
+                    i = parent;
+                }
+                keys[i] = key;
+                ids[i] = id;
+            } else if (after(keys[0], ids[0], key, id)) {
+                siftDown(key, id);
+            }
         }
+
+        // Indices from the nearest to the farthest; empties the heap
+        int[] drainSorted() {
+            int[] sorted = new int[size];
+            while (size > 0) {
+                sorted[size - 1] = ids[0];
+                size--;
+                if (size > 0) siftDown(keys[size], ids[size]);
+            }
+            return sorted;
+        }
+
+        // Puts (key, id) at the root and moves it down to its place among the first size entries
+        private void siftDown(double key, int id) {
+            int i = 0, half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && after(keys[child + 1], ids[child + 1], keys[child], ids[child])) child++;
+                if (!after(keys[child], ids[child], key, id)) break;
+                keys[i] = keys[child];
+                ids[i] = ids[child];
+                i = child;
+            }
+            keys[i] = key;
+            ids[i] = id;
+        }
+
+        private static boolean after(double aKey, int aId, double bKey, int bId) {
+            return aKey > bKey || (aKey == bKey && aId > bId);
+        }
+    }
+
+    // ------------------ COORDINATES ------------------
+
+    // The records' coordinates, packed record by record
+    private static double[] coordinates(List<DataRecord> records, int dims, ForkJoinPool pool) {
+        double[] coords = new double[records.size() * dims];
+        Parallel.forRange(pool, 0, records.size(), SCAN_GRAIN, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                DataRecord r = records.get(i);
+                for (int d = 0; d < dims; d++) coords[i * dims + d] = coordinate(r, d);
+            }
+        });
+        return coords;
+    }
+
+    // Coordinate d of a record (ids compare exactly as doubles below 2^53)
+    private static double coordinate(DataRecord r, int d) {
+        switch (d) {
+            case 0: return r.getLat();
+            case 1: return r.getLon();
+            case 2: return r.getId();
+            case 3: return r.getUid();
+            default: return r.getChangeset();
+        }
+    }
+
+    private static double sum(double[] values, int off, int dims) {
+        double s = 0.0;
+        for (int d = 0; d < dims; d++) s += values[off + d];
+        return s;
     }
-}
\ No newline at end of file
+}
@@ -19,6 +19,20 @@ public class TreeRecordID {
         return slotId;
     }
 
+    // Two ids are equal when they address the same block and slot
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TreeRecordID)) return false;
+        TreeRecordID other = (TreeRecordID) o;
+        return blockId == other.blockId && slotId == other.slotId;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * blockId + slotId;
+    }
+
     @Override
     public String toString() {
         return "TreeRecordID(" + blockId + ", " + slotId + ")";
@@ -0,0 +1,39 @@
+package spatialTree;
+
+// One result of a spatial join: a record of the left tree and a record of the right tree
+public class TreeRecordIDPair {
+
+    private final TreeRecordID left;
+    private final TreeRecordID right;
+
+    public TreeRecordIDPair(TreeRecordID left, TreeRecordID right) {
+        this.left = left;
+        this.right = right;
+    }
+
+    public TreeRecordID getLeft() {
+        return left;
+    }
+
+    public TreeRecordID getRight() {
+        return right;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TreeRecordIDPair)) return false;
+        TreeRecordIDPair other = (TreeRecordIDPair) o;
+        return left.equals(other.left) && right.equals(other.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * left.hashCode() + right.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "(" + left + ", " + right + ")";
+    }
+}
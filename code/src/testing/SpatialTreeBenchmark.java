@@ -0,0 +1,800 @@
+package testing;
+
+import domain.DataRecord;
+import maps.MapParser;
+import spatialTree.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Micro-benchmarks for the R*-Tree (run standalone, reads data/map.osm like Main)
+public class SpatialTreeBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int maxEntries = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int dims = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        List<DataRecord> records = MapParser.parseOSM("data/map.osm");
+        List<double[]> points = toPoints(records, dims);
+        List<TreeRecordID> rids = toRecordIDs(records.size());
+
+        runAllocationBenchmark(points, rids, maxEntries, dims);
+        runBulkLoadBenchmark(points, rids, maxEntries, dims);
+        runCursorBenchmark(points, rids, maxEntries, dims);
+        runAggregateBenchmark(maxEntries, dims, 1_000_000);
+        runParallelRangeBenchmark(maxEntries, dims, 1_000_000);
+        runBatchRangeBenchmark(maxEntries, dims, 1_000_000, 16);
+        runNearestNeighborBenchmark(maxEntries, dims, 1_000_000);
+        runBatchNearestNeighborBenchmark(maxEntries, dims, 1_000_000, 200_000, 5);
+        runSpatialJoinBenchmark(maxEntries, dims, 1_000_000, 50_000, 0.002);
+        runSkylineBenchmark(maxEntries, 1_000_000);
+        runSkylineIndexBenchmark(maxEntries, 3, 1_000_000, 2000);
+        runScanBenchmark(maxEntries, 1_000_000);
+        runReverseNearestNeighborBenchmark(maxEntries, dims, 200_000);
+        runParallelBulkLoadBenchmark(maxEntries, dims, 2_000_000);
+        runMergeBenchmark(maxEntries, dims, 500_000, 100_000);
+        for (double step : new double[]{0.00001, 0.001}) {
+            runUpdateBenchmark(points, rids, maxEntries, dims, step, 500_000);
+        }
+        for (int readers : new int[]{1, 2, 4, 8}) {
+            runSnapshotBenchmark(points, rids, maxEntries, dims, readers, 1000);
+        }
+        for (int writers : new int[]{1, 2, 4, 8}) {
+            runConcurrentInsertBenchmark(points, maxEntries, dims, writers, 200_000);
+        }
+    }
+
+    // Builds coordinate arrays the same way Main does
+    public static List<double[]> toPoints(List<DataRecord> records, int dims) {
+        List<double[]> points = new ArrayList<>(records.size());
+        for (DataRecord rec : records) {
+            double[] coords = new double[dims];
+            if (dims >= 1) coords[0] = rec.getLat();
+            if (dims >= 2) coords[1] = rec.getLon();
+            if (dims >= 3) coords[2] = rec.getId();
+            if (dims >= 4) coords[3] = rec.getUid();
+            if (dims >= 5) coords[4] = rec.getChangeset();
+            points.add(coords);
+        }
+        return points;
+    }
+
+    // Sequential block/slot ids, 10 slots per block (as in Main)
+    public static List<TreeRecordID> toRecordIDs(int count) {
+        List<TreeRecordID> rids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rids.add(new TreeRecordID(1 + i / 10, i % 10));
+        }
+        return rids;
+    }
+
+    // Measures bytes allocated per complete insert (descent, splits and reinsertion), on the
+    // current thread, after a warm-up tree so the JIT has compiled the insert path
+    public static void runAllocationBenchmark(List<double[]> points, List<TreeRecordID> rids, int maxEntries, int dims) {
+        System.out.println("\n--- Allocation benchmark (maxEntries=" + maxEntries + ", dims=" + dims + ") ---");
+
+        RStarTree warmUp = new RStarTree(maxEntries, dims);
+        for (int i = 0; i < points.size(); i++) {
+            warmUp.insert(points.get(i), rids.get(i));
+        }
+
+        RStarTree tree = new RStarTree(maxEntries, dims);
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < points.size(); i++) {
+            tree.insert(points.get(i), rids.get(i));
+        }
+        long insertBytes = THREADS.getCurrentThreadAllocatedBytes() - before;
+
+        System.out.printf("Inserts: %d, bytes/insert (incl. splits & reinsertion): %.1f%n",
+                points.size(), insertBytes / (double) points.size());
+    }
+
+    // Nodes visited per range query for trees built by each bulk loader (and by inserts)
+    public static void runBulkLoadBenchmark(List<double[]> points, List<TreeRecordID> rids, int maxEntries, int dims) {
+        System.out.println("\n--- Bulk load benchmark (maxEntries=" + maxEntries + ", dims=" + dims + ") ---");
+
+        RStarTree inserted = new RStarTree(maxEntries, dims);
+        for (int i = 0; i < points.size(); i++) inserted.insert(points.get(i), rids.get(i));
+        reportVisits("insert one by one", inserted, points);
+
+        reportVisits("sort on dim 0", TreeBulkLoader.bulkLoad(points, rids, maxEntries, dims,
+                TreeBulkLoader.Method.SORT_FIRST_DIM, 1.0), points);
+        for (double fill : new double[]{1.0, 0.7}) {
+            reportVisits("STR fill " + fill, TreeBulkLoader.bulkLoad(points, rids, maxEntries, dims,
+                    TreeBulkLoader.Method.STR, fill), points);
+            reportVisits("Hilbert fill " + fill, TreeBulkLoader.bulkLoad(points, rids, maxEntries, dims,
+                    TreeBulkLoader.Method.HILBERT, fill), points);
+        }
+    }
+
+    // Time and allocation per query for a box covering the whole input: full result list,
+    // first 100 results through a cursor, and an existence test
+    public static void runCursorBenchmark(List<double[]> points, List<TreeRecordID> rids, int maxEntries, int dims) {
+        System.out.println("\n--- Range cursor benchmark (whole-map box, " + points.size() + " points) ---");
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, rids, maxEntries, dims, TreeBulkLoader.Method.STR, 1.0);
+        MBR all = tree.getRoot().getMbr().copy();
+
+        String[] labels = {"rangeQuery", "rangeQuery(100)", "exists"};
+        for (int variant = 0; variant < labels.length; variant++) {
+            int rounds = 2000;
+            long sink = 0;
+            for (int round = 0; round < rounds; round++) sink += runCursorVariant(tree, all, variant);
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) sink += runCursorVariant(tree, all, variant);
+            double micros = (System.nanoTime() - start) / 1e3 / rounds;
+            bytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+            System.out.printf("%-16s %9.2f us/query   %,10d bytes/query (sink=%d)%n",
+                    labels[variant], micros, bytes / rounds, sink);
+        }
+    }
+
+    private static long runCursorVariant(RStarTree tree, MBR box, int variant) {
+        switch (variant) {
+            case 0:
+                return tree.rangeQuery(box).size();
+            case 1:
+                return tree.rangeQuery(box, 100).size();
+            default:
+                return tree.exists(box) ? 1 : 0;
+        }
+    }
+
+    // Counting the points in boxes of growing size on `count` uniform points: from the
+    // rangeQuery result list, and with rangeCount answering from the node totals
+    public static void runAggregateBenchmark(int maxEntries, int dims, int count) {
+        System.out.println("\n--- Range aggregate benchmark (" + count + " points) ---");
+        Random rnd = new Random(5);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+
+        for (double side : new double[]{0.01, 0.1, 0.5}) {
+            MBR[] boxes = new MBR[200];
+            for (int i = 0; i < boxes.length; i++) boxes[i] = boxAround(randomPoint(rnd, dims, 1.0), side / 2);
+
+            long listed = 0, counted = 0;
+            long start = System.nanoTime();
+            for (MBR box : boxes) listed += tree.rangeQuery(box).size();
+            double listMicros = (System.nanoTime() - start) / 1e3 / boxes.length;
+            start = System.nanoTime();
+            for (MBR box : boxes) counted += tree.rangeCount(box);
+            double countMicros = (System.nanoTime() - start) / 1e3 / boxes.length;
+            System.out.printf("side %.2f: rangeQuery().size() %9.1f us   rangeCount %7.1f us   (%d / %d points)%n",
+                    side, listMicros, countMicros, listed, counted);
+        }
+    }
+
+    // Sequential against parallel range queries (common pool, and a 4-worker pool) for boxes
+    // of growing size on `count` uniform points
+    public static void runParallelRangeBenchmark(int maxEntries, int dims, int count) {
+        System.out.println("\n--- Parallel range query benchmark (" + count + " points, "
+                + Runtime.getRuntime().availableProcessors() + " cores) ---");
+        Random rnd = new Random(9);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+        ForkJoinPool fourWorkers = new ForkJoinPool(4);
+
+        for (double side : new double[]{0.01, 0.1, 0.5}) {
+            MBR[] boxes = new MBR[50];
+            for (int i = 0; i < boxes.length; i++) boxes[i] = boxAround(randomPoint(rnd, dims, 1.0), side / 2);
+            double[] micros = new double[3];
+            long sink = 0;
+            for (int round = 0; round < 2; round++) { // first round warms up
+                for (int variant = 0; variant < 3; variant++) {
+                    long start = System.nanoTime();
+                    for (MBR box : boxes) {
+                        List<TreeRecordID> found = variant == 0 ? tree.rangeQuery(box)
+                                : variant == 1 ? tree.parallelRangeQuery(box)
+                                : tree.parallelRangeQuery(box, fourWorkers);
+                        sink += found.size();
+                    }
+                    micros[variant] = (System.nanoTime() - start) / 1e3 / boxes.length;
+                }
+            }
+            System.out.printf("side %.2f: sequential %9.1f us   parallel %9.1f us   4 workers %9.1f us (sink=%d)%n",
+                    side, micros[0], micros[1], micros[2], sink);
+        }
+        fourWorkers.shutdown();
+    }
+
+    // Tile batches: a view of side 0.05 cut into tiles x tiles adjacent boxes (other
+    // dimensions span the view too), queried one by one and with batchRangeQuery
+    public static void runBatchRangeBenchmark(int maxEntries, int dims, int count, int tiles) {
+        System.out.println("\n--- Batched range query benchmark (" + count + " points, "
+                + tiles * tiles + " tiles per view) ---");
+        Random rnd = new Random(13);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+
+        double view = 0.05, tile = view / tiles;
+        List<List<MBR>> views = new ArrayList<>();
+        for (int v = 0; v < 200; v++) {
+            double[] corner = randomPoint(rnd, dims, 1.0 - view);
+            List<MBR> boxes = new ArrayList<>(tiles * tiles);
+            for (int x = 0; x < tiles; x++) {
+                for (int y = 0; y < tiles; y++) {
+                    double[] min = corner.clone();
+                    double[] max = new double[dims];
+                    for (int d = 0; d < dims; d++) max[d] = corner[d] + view;
+                    min[0] = corner[0] + x * tile;
+                    max[0] = min[0] + tile;
+                    if (dims > 1) {
+                        min[1] = corner[1] + y * tile;
+                        max[1] = min[1] + tile;
+                    }
+                    boxes.add(new MBR(min, max));
+                }
+            }
+            views.add(boxes);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long single = 0, batched = 0;
+            long start = System.nanoTime();
+            for (List<MBR> boxes : views) {
+                for (MBR box : boxes) single += tree.rangeQuery(box).size();
+            }
+            double singleMicros = (System.nanoTime() - start) / 1e3 / views.size();
+            start = System.nanoTime();
+            for (List<MBR> boxes : views) {
+                for (List<TreeRecordID> found : tree.batchRangeQuery(boxes)) batched += found.size();
+            }
+            double batchMicros = (System.nanoTime() - start) / 1e3 / views.size();
+            System.out.printf("one by one %9.1f us/view   batched %9.1f us/view   (%d / %d results)%n",
+                    singleMicros, batchMicros, single, batched);
+        }
+    }
+
+    // Latency of kNN for a few k, and of taking the same number of results from the
+    // distance-browsing cursor, on `count` uniform points
+    public static void runNearestNeighborBenchmark(int maxEntries, int dims, int count) {
+        System.out.println("\n--- Nearest neighbour benchmark (" + count + " points) ---");
+        Random rnd = new Random(21);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+
+        double[][] queries = new double[5000][];
+        for (int i = 0; i < queries.length; i++) queries[i] = randomPoint(rnd, dims, 1.0);
+        for (int k : new int[]{1, 10, 100}) {
+            double knnMicros = 0, cursorMicros = 0;
+            long sink = 0;
+            for (int round = 0; round < 3; round++) { // earlier rounds warm up
+                long start = System.nanoTime();
+                for (double[] q : queries) sink += tree.kNearestNeighbors(q, k).size();
+                knnMicros = (System.nanoTime() - start) / 1e3 / queries.length;
+                start = System.nanoTime();
+                for (double[] q : queries) {
+                    NearestNeighborCursor cursor = tree.nearestNeighborCursor(q);
+                    for (int i = 0; i < k && cursor.hasNext(); i++) sink += cursor.next().getSlotId();
+                }
+                cursorMicros = (System.nanoTime() - start) / 1e3 / queries.length;
+            }
+            System.out.printf("k=%-4d kNearestNeighbors %8.1f us   cursor (first k) %8.1f us (sink=%d)%n",
+                    k, knnMicros, cursorMicros, sink);
+        }
+    }
+
+    // Map-matching style kNN for `probes` uniform probe points against `count` points: one
+    // kNearestNeighbors call per probe against batchKNearestNeighbors, then the all-kNN self join
+    public static void runBatchNearestNeighborBenchmark(int maxEntries, int dims, int count, int probes, int k) {
+        System.out.println("\n--- Batched kNN benchmark (" + count + " points, " + probes + " probes, k=" + k
+                + ", " + Runtime.getRuntime().availableProcessors() + " cores) ---");
+        Random rnd = new Random(31);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+        List<double[]> probePoints = new ArrayList<>(probes);
+        for (int i = 0; i < probes; i++) probePoints.add(randomPoint(rnd, dims, 1.0));
+
+        for (int round = 0; round < 2; round++) {
+            long sink = 0;
+            long start = System.nanoTime();
+            for (double[] probe : probePoints) sink += tree.kNearestNeighbors(probe, k).size();
+            double single = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            for (List<TreeRecordID> found : tree.batchKNearestNeighbors(probePoints, k)) sink += found.size();
+            double batched = (System.nanoTime() - start) / 1e6;
+            System.out.printf("one by one %8.1f ms   batched %8.1f ms (sink=%d)%n", single, batched, sink);
+        }
+        long start = System.nanoTime();
+        int joined = tree.allKNearestNeighbors(k).size();
+        System.out.printf("all-kNN self join of %d points: %.1f ms%n", joined, (System.nanoTime() - start) / 1e6);
+    }
+
+    // Box join of `stops` probe points against `pois` points (all within halfSide on every
+    // dimension): a rangeQuery per stop, against the synchronized-traversal join
+    public static void runSpatialJoinBenchmark(int maxEntries, int dims, int pois, int stops, double halfSide) {
+        System.out.println("\n--- Spatial join benchmark (" + pois + " x " + stops + " points, half side "
+                + halfSide + ", " + Runtime.getRuntime().availableProcessors() + " cores) ---");
+        Random rnd = new Random(37);
+        List<double[]> poiPoints = new ArrayList<>(pois);
+        for (int i = 0; i < pois; i++) poiPoints.add(randomPoint(rnd, dims, 1.0));
+        List<double[]> stopPoints = new ArrayList<>(stops);
+        for (int i = 0; i < stops; i++) stopPoints.add(randomPoint(rnd, dims, 1.0));
+        RStarTree poiTree = TreeBulkLoader.bulkLoad(poiPoints, toRecordIDs(pois), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+        RStarTree stopTree = TreeBulkLoader.bulkLoad(stopPoints, toRecordIDs(stops), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long nested = 0;
+            for (double[] stop : stopPoints) nested += poiTree.rangeQuery(boxAround(stop, halfSide)).size();
+            double nestedMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            long joined = stopTree.boxJoin(poiTree, halfSide, null).size();
+            double joinMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            long parallel = stopTree.boxJoin(poiTree, halfSide, ForkJoinPool.commonPool()).size();
+            double parallelMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("nested rangeQuery %8.1f ms   join %8.1f ms   parallel join %8.1f ms (%d / %d / %d pairs)%n",
+                    nestedMs, joinMs, parallelMs, nested, joined, parallel);
+        }
+    }
+
+    // skylineQuery on `count` uniform points in 2 to 5 dimensions
+    public static void runSkylineBenchmark(int maxEntries, int count) {
+        System.out.println("\n--- Skyline benchmark (" + count + " points) ---");
+        for (int dims = 2; dims <= 5; dims++) {
+            Random rnd = new Random(41);
+            List<double[]> points = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+            RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                    TreeBulkLoader.Method.STR, 1.0);
+            double ms = 0;
+            int size = 0;
+            for (int round = 0; round < 3; round++) { // earlier rounds warm up
+                long start = System.nanoTime();
+                size = tree.skylineQuery().size();
+                ms = (System.nanoTime() - start) / 1e6;
+            }
+            System.out.printf("%d dims: skylineQuery %8.2f ms (%d points)%n", dims, ms, size);
+        }
+    }
+
+    // A stream of `ops` writes on `count` points, alternating a random insert and the delete of
+    // a skyline point (the costly case): skylineQuery after every write against the skyline
+    // index. The recomputing run does a tenth of the writes.
+    public static void runSkylineIndexBenchmark(int maxEntries, int dims, int count, int ops) {
+        System.out.println("\n--- Skyline maintenance benchmark (" + count + " points, " + dims + " dims, "
+                + ops + " writes) ---");
+        for (boolean indexed : new boolean[]{false, true}) {
+            Random rnd = new Random(43);
+            List<double[]> points = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+            RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                    TreeBulkLoader.Method.STR, 1.0);
+            if (indexed) tree.enableSkylineIndex();
+            int writes = indexed ? ops : ops / 10;
+            List<TreeRecordID> skyline = indexed ? tree.indexedSkyline() : tree.skylineQuery();
+            long start = System.nanoTime();
+            for (int i = 0; i < writes; i++) {
+                if (i % 2 == 0) {
+                    double[] p = randomPoint(rnd, dims, 1.0);
+                    int id = points.size(); // numbered like toRecordIDs
+                    tree.insert(p, new TreeRecordID(1 + id / 10, id % 10));
+                    points.add(p);
+                } else {
+                    TreeRecordID victim = skyline.get(rnd.nextInt(skyline.size()));
+                    tree.delete(points.get((victim.getBlockId() - 1) * 10 + victim.getSlotId()), victim);
+                }
+                skyline = indexed ? tree.indexedSkyline() : tree.skylineQuery();
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / writes;
+            System.out.printf("%-14s %10.1f us per write (skyline %d points)%n",
+                    indexed ? "skyline index" : "skylineQuery", micros, skyline.size());
+        }
+    }
+
+    // TreeQueryExecutor's scans (sequential and on the common pool) against the tree, on
+    // `count` records with uniform lat/lon: range queries of growing selectivity, kNN, skyline
+    public static void runScanBenchmark(int maxEntries, int count) {
+        System.out.println("\n--- Scan vs tree benchmark (" + count + " records, 2 dims, "
+                + Runtime.getRuntime().availableProcessors() + " cores) ---");
+        Random rnd = new Random(47);
+        List<DataRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new DataRecord(i, "", rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(1000), rnd.nextInt(1000)));
+        }
+        RStarTree tree = TreeBulkLoader.bulkLoad(toPoints(records, 2), toRecordIDs(count), maxEntries, 2,
+                TreeBulkLoader.Method.STR, 1.0);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        for (double side : new double[]{0.01, 0.3, 0.9}) {
+            MBR box = boxAround(new double[]{0.5, 0.5}, side / 2);
+            double[] min = box.getMin(), max = box.getMax();
+            double scanMs = 0, parallelMs = 0, treeMs = 0;
+            long found = 0;
+            for (int round = 0; round < 3; round++) { // earlier rounds warm up
+                long start = System.nanoTime();
+                found = TreeQueryExecutor.rangeQuery(records, min, max, 2).size();
+                scanMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                TreeQueryExecutor.rangeQuery(records, min, max, 2, pool);
+                parallelMs = (System.nanoTime() - start) / 1e6;
+                start = System.nanoTime();
+                tree.rangeQuery(box);
+                treeMs = (System.nanoTime() - start) / 1e6;
+            }
+            System.out.printf("range side %-5.2f scan %8.2f ms   parallel scan %8.2f ms   tree %8.2f ms (%d records)%n",
+                    side, scanMs, parallelMs, treeMs, found);
+        }
+
+        double[][] probes = new double[20][];
+        for (int i = 0; i < probes.length; i++) probes[i] = randomPoint(rnd, 2, 1.0);
+        double scanMs = 0, parallelMs = 0, treeMs = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (double[] q : probes) TreeQueryExecutor.kNearestNeighbors(records, q, 10, 2);
+            scanMs = (System.nanoTime() - start) / 1e6 / probes.length;
+            start = System.nanoTime();
+            for (double[] q : probes) TreeQueryExecutor.kNearestNeighbors(records, q, 10, 2, pool);
+            parallelMs = (System.nanoTime() - start) / 1e6 / probes.length;
+            start = System.nanoTime();
+            for (double[] q : probes) tree.kNearestNeighbors(q, 10);
+            treeMs = (System.nanoTime() - start) / 1e6 / probes.length;
+        }
+        System.out.printf("kNN k=10         scan %8.2f ms   parallel scan %8.2f ms   tree %8.2f ms%n",
+                scanMs, parallelMs, treeMs);
+
+        int size = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            size = TreeQueryExecutor.skyline(records, 2).size();
+            scanMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            TreeQueryExecutor.skyline(records, 2, pool);
+            parallelMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            tree.skylineQuery();
+            treeMs = (System.nanoTime() - start) / 1e6;
+        }
+        System.out.printf("skyline          scan %8.2f ms   parallel scan %8.2f ms   tree %8.2f ms (%d records)%n",
+                scanMs, parallelMs, treeMs, size);
+    }
+
+    // reverseKNearestNeighbors against the old way, a kNearestNeighbors call for every point
+    // (checking whether the query point is closer than the k-th neighbour)
+    public static void runReverseNearestNeighborBenchmark(int maxEntries, int dims, int count) {
+        System.out.println("\n--- Reverse kNN benchmark (" + count + " points) ---");
+        Random rnd = new Random(53);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) points.add(randomPoint(rnd, dims, 1.0));
+        RStarTree tree = TreeBulkLoader.bulkLoad(points, toRecordIDs(count), maxEntries, dims,
+                TreeBulkLoader.Method.STR, 1.0);
+        double[][] queries = new double[200][];
+        for (int i = 0; i < queries.length; i++) queries[i] = randomPoint(rnd, dims, 1.0);
+
+        for (int k : new int[]{1, 5, 10}) {
+            double micros = 0;
+            long found = 0;
+            for (int round = 0; round < 3; round++) { // earlier rounds warm up
+                found = 0;
+                long start = System.nanoTime();
+                for (double[] q : queries) found += tree.reverseKNearestNeighbors(q, k).size();
+                micros = (System.nanoTime() - start) / 1e3 / queries.length;
+            }
+            System.out.printf("k=%-3d reverseKNearestNeighbors %8.1f us (%.1f results per query)%n",
+                    k, micros, (double) found / queries.length);
+        }
+
+        double[] q = queries[0];
+        long start = System.nanoTime();
+        int naive = 0;
+        for (double[] p : points) {
+            // p itself comes first among its neighbours, so ask for k + 1
+            List<TreeRecordID> nearest = tree.kNearestNeighbors(p, 6);
+            double kth = Double.POSITIVE_INFINITY;
+            if (nearest.size() == 6) kth = distanceSq(p, points.get(indexOf(nearest.get(5))));
+            if (distanceSq(p, q) <= kth) naive++;
+        }
+        System.out.printf("k=5   kNearestNeighbors per point %8.1f ms (%d results, %d from the index)%n",
+                (System.nanoTime() - start) / 1e6, naive, tree.reverseKNearestNeighbors(q, 5).size());
+    }
+
+    // Build time of the sequential and the parallel bulk loader on `count` uniform points
+    public static void runParallelBulkLoadBenchmark(int maxEntries, int dims, int count) {
+        System.out.println("\n--- Parallel bulk load benchmark (" + count + " points, "
+                + Runtime.getRuntime().availableProcessors() + " cores) ---");
+        Random rnd = new Random(11);
+        List<double[]> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double[] p = new double[dims];
+            for (int d = 0; d < dims; d++) p[d] = rnd.nextDouble();
+            points.add(p);
+        }
+        List<TreeRecordID> rids = toRecordIDs(count);
+
+        for (TreeBulkLoader.Method method : new TreeBulkLoader.Method[]{TreeBulkLoader.Method.STR,
+                TreeBulkLoader.Method.HILBERT}) {
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                TreeBulkLoader.bulkLoad(points, rids, maxEntries, dims, method, 1.0);
+                long sequential = System.nanoTime() - start;
+                start = System.nanoTime();
+                TreeBulkLoader.parallelBulkLoad(points, rids, maxEntries, dims, method, 1.0);
+                long parallel = System.nanoTime() - start;
+                System.out.printf("%-8s sequential: %8.1f ms   parallel: %8.1f ms%n",
+                        method, sequential / 1e6, parallel / 1e6);
+            }
+        }
+    }
+
+    // Adds a batch to a bulk-loaded tree with insertAll and with one insert per point, for a
+    // batch spread over the whole space and for one concentrated in a corner of it
+    public static void runMergeBenchmark(int maxEntries, int dims, int base, int batch) {
+        System.out.println("\n--- Merge benchmark (" + base + " points + batch of " + batch + ") ---");
+        Random rnd = new Random(5);
+        List<double[]> basePoints = new ArrayList<>(base);
+        for (int i = 0; i < base; i++) basePoints.add(randomPoint(rnd, dims, 1.0));
+        List<TreeRecordID> baseRids = toRecordIDs(base);
+        List<TreeRecordID> batchRids = toRecordIDs(batch);
+
+        for (double extent : new double[]{1.0, 0.1}) {
+            List<double[]> batchPoints = new ArrayList<>(batch);
+            for (int i = 0; i < batch; i++) batchPoints.add(randomPoint(rnd, dims, extent));
+
+            for (boolean merge : new boolean[]{false, true}) {
+                RStarTree tree = TreeBulkLoader.bulkLoad(basePoints, baseRids, maxEntries, dims,
+                        TreeBulkLoader.Method.STR, 1.0);
+                long start = System.nanoTime();
+                if (merge) {
+                    tree.insertAll(batchPoints, batchRids);
+                } else {
+                    for (int i = 0; i < batch; i++) tree.insert(batchPoints.get(i), batchRids.get(i));
+                }
+                double millis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("batch extent %.1f, %-14s %8.1f ms, nodes under minimum fill: %d%n", extent,
+                        merge ? "insertAll:" : "insert each:", millis, countUnderfilled(tree.getRoot(), tree.getMinEntries()));
+                reportVisits("  then queries", tree, basePoints, 0.01);
+            }
+        }
+    }
+
+    // Moves random records by up to `step` per axis, `updates` times: delete + insert,
+    // update with the old position, and update through the record index
+    public static void runUpdateBenchmark(List<double[]> points, List<TreeRecordID> rids, int maxEntries, int dims,
+                                          double step, int updates) {
+        System.out.println("\n--- Update benchmark (step " + step + ", " + updates + " updates) ---");
+        String[] labels = {"delete+insert", "update(old,new)", "update(rid,new)"};
+        for (int variant = 0; variant < labels.length; variant++) {
+            RStarTree tree = new RStarTree(maxEntries, dims);
+            List<double[]> current = new ArrayList<>(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                current.add(points.get(i).clone());
+                tree.insert(points.get(i), rids.get(i));
+            }
+            if (variant == 2) tree.enableRecordIndex();
+
+            Random rnd = new Random(3);
+            long start = System.nanoTime();
+            for (int u = 0; u < updates; u++) {
+                int i = rnd.nextInt(current.size());
+                double[] from = current.get(i);
+                double[] to = new double[dims];
+                for (int d = 0; d < dims; d++) to[d] = from[d] + (rnd.nextDouble() - 0.5) * 2 * step;
+                if (variant == 0) {
+                    tree.delete(from, rids.get(i));
+                    tree.insert(to, rids.get(i));
+                } else if (variant == 1) {
+                    tree.update(rids.get(i), from, to);
+                } else {
+                    tree.update(rids.get(i), to);
+                }
+                current.set(i, to);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-16s updates/s: %,12.0f%n", labels[variant], updates / seconds);
+        }
+    }
+
+    private static double[] randomPoint(Random rnd, int dims, double extent) {
+        double[] p = new double[dims];
+        for (int d = 0; d < dims; d++) p[d] = rnd.nextDouble() * extent;
+        return p;
+    }
+
+    // Position of a record id made by toRecordIDs
+    private static int indexOf(TreeRecordID rid) {
+        return (rid.getBlockId() - 1) * 10 + rid.getSlotId();
+    }
+
+    private static double distanceSq(double[] a, double[] b) {
+        double sum = 0;
+        for (int d = 0; d < a.length; d++) sum += (a[d] - b[d]) * (a[d] - b[d]);
+        return sum;
+    }
+
+    // Nodes below the root with fewer than minEntries entries
+    private static int countUnderfilled(TreeNode node, int minEntries) {
+        int count = 0;
+        for (TreeNode child : node.getChildren()) {
+            if (child.getEntryCount() < minEntries) count++;
+            count += countUnderfilled(child, minEntries);
+        }
+        return count;
+    }
+
+    private static void reportVisits(String label, RStarTree tree, List<double[]> points) {
+        reportVisits(label, tree, points, 0.002);
+    }
+
+    private static void reportVisits(String label, RStarTree tree, List<double[]> points, double radius) {
+        Random rnd = new Random(7);
+        int queries = 2000;
+        long nodes = 0, leaves = 0, results = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            MBR box = boxAround(points.get(rnd.nextInt(points.size())), radius);
+            long[] visits = new long[2];
+            countVisits(tree.getRoot(), box, visits);
+            nodes += visits[0];
+            leaves += visits[1];
+            results += tree.rangeQuery(box).size();
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / queries;
+        System.out.printf("%-18s nodes/query: %7.1f   leaves/query: %7.1f   results/query: %6.1f   %.1f us/query%n",
+                label, nodes / (double) queries, leaves / (double) queries, results / (double) queries, micros);
+    }
+
+    // Counts the nodes a range query opens (visits[0]) and how many of them are leaves (visits[1])
+    private static void countVisits(TreeNode node, MBR query, long[] visits) {
+        visits[0]++;
+        if (node.isLeaf()) {
+            visits[1]++;
+            return;
+        }
+        TreeInternalNode internal = (TreeInternalNode) node;
+        for (int i = 0; i < internal.getChildCount(); i++) {
+            if (internal.childIntersects(i, query)) countVisits(internal.getChild(i), query, visits);
+        }
+    }
+
+    // N reader threads run range queries for `millis` while one writer keeps deleting and
+    // re-inserting points. Compares copy-on-write snapshots with a tree behind a global lock.
+    public static void runSnapshotBenchmark(List<double[]> points, List<TreeRecordID> rids, int maxEntries,
+                                            int dims, int readers, long millis) {
+        System.out.println("\n--- Snapshot benchmark (" + readers + " readers, 1 writer, " + millis + " ms) ---");
+        for (boolean copyOnWrite : new boolean[]{false, true}) {
+            RStarTree tree = new RStarTree(maxEntries, dims, copyOnWrite);
+            for (int i = 0; i < points.size(); i++) tree.insert(points.get(i), rids.get(i));
+
+            ReadWriteLock lock = new ReentrantReadWriteLock();
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder queries = new LongAdder();
+            LongAdder writes = new LongAdder();
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < readers; t++) {
+                long seed = t;
+                threads.add(new Thread(() -> {
+                    Random rnd = new Random(seed);
+                    while (!stop.get()) {
+                        MBR box = boxAround(points.get(rnd.nextInt(points.size())), 0.005);
+                        if (copyOnWrite) {
+                            tree.rangeQuery(box);
+                        } else {
+                            lock.readLock().lock();
+                            try {
+                                tree.rangeQuery(box);
+                            } finally {
+                                lock.readLock().unlock();
+                            }
+                        }
+                        queries.increment();
+                    }
+                }));
+            }
+            threads.add(new Thread(() -> {
+                int i = 0;
+                while (!stop.get()) {
+                    double[] p = points.get(i);
+                    if (!copyOnWrite) lock.writeLock().lock();
+                    try {
+                        tree.delete(p);
+                        tree.insert(p, rids.get(i));
+                    } finally {
+                        if (!copyOnWrite) lock.writeLock().unlock();
+                    }
+                    writes.add(2);
+                    i = (i + 1) % points.size();
+                }
+            }));
+
+            for (Thread t : threads) t.start();
+            try {
+                Thread.sleep(millis);
+                stop.set(true);
+                for (Thread t : threads) t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            double seconds = millis / 1000.0;
+            System.out.printf("%-15s queries/s: %,12.0f   writes/s: %,10.0f%n",
+                    copyOnWrite ? "copy-on-write" : "read/write lock",
+                    queries.sum() / seconds, writes.sum() / seconds);
+        }
+    }
+
+    // `writers` threads insert `count` synthetic points spread over the bounding box of the
+    // input into a concurrent tree that already holds the input. Thread t inserts stripe t of
+    // the first axis, so the writers mostly work on disjoint subtrees.
+    public static void runConcurrentInsertBenchmark(List<double[]> points, int maxEntries, int dims,
+                                                    int writers, int count) {
+        System.out.println("\n--- Concurrent insert benchmark (" + writers + " writers, " + count + " points) ---");
+        double[] lo = points.get(0).clone();
+        double[] hi = points.get(0).clone();
+        for (double[] p : points) {
+            for (int d = 0; d < dims; d++) {
+                lo[d] = Math.min(lo[d], p[d]);
+                hi[d] = Math.max(hi[d], p[d]);
+            }
+        }
+
+        RStarTree tree = new RStarTree(maxEntries, dims, RStarTree.WriteMode.CONCURRENT);
+        for (int i = 0; i < points.size(); i++) tree.insert(points.get(i), new TreeRecordID(1 + i / 10, i % 10));
+
+        List<List<double[]>> stripes = new ArrayList<>();
+        for (int t = 0; t < writers; t++) stripes.add(new ArrayList<>());
+        Random rnd = new Random(42);
+        for (int i = 0; i < count; i++) {
+            double[] p = new double[dims];
+            for (int d = 0; d < dims; d++) p[d] = lo[d] + rnd.nextDouble() * (hi[d] - lo[d]);
+            int stripe = (int) Math.min(writers - 1, (p[0] - lo[0]) / (hi[0] - lo[0]) * writers);
+            stripes.get(stripe).add(p);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            List<double[]> stripe = stripes.get(t);
+            int blockBase = 1_000_000 * (t + 1);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < stripe.size(); i++) {
+                    tree.insert(stripe.get(i), new TreeRecordID(blockBase + i / 10, i % 10));
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) t.start();
+        try {
+            for (Thread t : threads) t.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("inserts/s: %,12.0f   (%d cores available)%n",
+                count / seconds, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Query box of half-width `radius` around a point
+    public static MBR boxAround(double[] center, double radius) {
+        double[] min = new double[center.length];
+        double[] max = new double[center.length];
+        for (int d = 0; d < center.length; d++) {
+            min[d] = center[d] - radius;
+            max[d] = center[d] + radius;
+        }
+        return new MBR(min, max);
+    }
+}
@@ -0,0 +1,302 @@
+package testing;
+
+import spatialTree.*;
+
+import java.util.*;
+
+// Checks the tree's writes against a brute-force model (record id -> point) in every write
+// mode: inserts (from several threads in concurrent mode), insertAll, delete, deleteAll,
+// deleteIf and update. After every phase the structure is checked (levels, minimum and
+// maximum fill, boxes, point counts and sums, parent links) and queries are compared with a
+// linear scan of the model. A copy-on-write snapshot must come out of the later writes
+// unchanged. Any mismatch throws IllegalStateException.
+public class SpatialTreeChecker {
+
+    private static final int QUERIES = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        for (RStarTree.WriteMode mode : RStarTree.WriteMode.values()) {
+            for (int maxEntries : new int[]{4, 8, 16}) {
+                for (int dims : new int[]{2, 3}) {
+                    runWriteChecks(mode, maxEntries, dims, 4000, seed);
+                }
+            }
+        }
+        System.out.println("All checks passed.");
+    }
+
+    public static void runWriteChecks(RStarTree.WriteMode mode, int maxEntries, int dims, int count, long seed)
+            throws InterruptedException {
+        String label = mode + " maxEntries=" + maxEntries + " dims=" + dims;
+        Random rnd = new Random(seed);
+        Map<TreeRecordID, double[]> model = new HashMap<>();
+        RStarTree tree = new RStarTree(maxEntries, dims, mode);
+
+        // Inserts, split over threads when the tree allows it
+        List<double[]> points = new ArrayList<>(count);
+        List<TreeRecordID> rids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            points.add(gridPoint(rnd, dims));
+            rids.add(new TreeRecordID(i / 10 + 1, i % 10));
+            model.put(rids.get(i), points.get(i));
+        }
+        insertAll(tree, points, rids, mode == RStarTree.WriteMode.CONCURRENT ? 4 : 1);
+        verify(label + " after inserts", tree, maxEntries, model, rnd);
+        RStarTree snapshot = tree.isCopyOnWrite() ? tree.snapshot() : null;
+        Map<TreeRecordID, double[]> snapshotModel = new HashMap<>(model);
+        Map<TreeNode, TreeNode> snapshotParents = new IdentityHashMap<>();
+        if (snapshot != null) collectParents(snapshot.getRoot(), snapshotParents);
+
+        // A batch spread over the space, then one packed into a corner
+        for (double extent : new double[]{1.0, 0.1}) {
+            List<double[]> batch = new ArrayList<>();
+            List<TreeRecordID> batchRids = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                double[] p = gridPoint(rnd, dims);
+                for (int d = 0; d < dims; d++) p[d] *= extent;
+                batch.add(p);
+                batchRids.add(new TreeRecordID(1_000_000 + model.size(), 0));
+                model.put(batchRids.get(i), p);
+            }
+            tree.insertAll(batch, batchRids);
+            verify(label + " after insertAll (extent " + extent + ")", tree, maxEntries, model, rnd);
+        }
+
+        // A batch into an empty tree
+        RStarTree empty = new RStarTree(maxEntries, dims, mode);
+        Map<TreeRecordID, double[]> emptyModel = new HashMap<>();
+        for (int i = 0; i < count / 3; i++) emptyModel.put(rids.get(i), points.get(i));
+        empty.insertAll(points.subList(0, count / 3), rids.subList(0, count / 3));
+        verify(label + " after insertAll into an empty tree", empty, maxEntries, emptyModel, rnd);
+
+        // Single deletes, by point and record id (points repeat on the grid)
+        List<TreeRecordID> ids = new ArrayList<>(model.keySet());
+        Collections.shuffle(ids, rnd);
+        for (TreeRecordID rid : ids.subList(0, ids.size() / 3)) {
+            if (!tree.delete(model.get(rid), rid)) fail(label + " delete did not find " + rid);
+            model.remove(rid);
+        }
+        verify(label + " after deletes", tree, maxEntries, model, rnd);
+        if (tree.delete(gridPoint(rnd, dims), new TreeRecordID(-1, -1))) fail(label + " deleted a missing record");
+
+        // Region deletes, with and without a filter
+        for (int round = 0; round < 10; round++) {
+            MBR region = randomBox(rnd, dims, 0.3);
+            boolean filtered = round % 2 == 1;
+            int expected = 0;
+            for (Iterator<Map.Entry<TreeRecordID, double[]>> it = model.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<TreeRecordID, double[]> e = it.next();
+                if (region.contains(e.getValue()) && (!filtered || e.getKey().getSlotId() % 2 == 0)) {
+                    it.remove();
+                    expected++;
+                }
+            }
+            int removed = filtered
+                    ? tree.deleteIf(region, (p, rid) -> rid.getSlotId() % 2 == 0)
+                    : tree.deleteAll(region);
+            if (removed != expected) {
+                fail(label + " region delete removed " + removed + ", expected " + expected);
+            }
+        }
+        verify(label + " after region deletes", tree, maxEntries, model, rnd);
+
+        // Moves, both small and across the space
+        ids = new ArrayList<>(model.keySet());
+        Collections.shuffle(ids, rnd);
+        for (TreeRecordID rid : ids.subList(0, ids.size() / 4)) {
+            double[] to = rnd.nextBoolean() ? gridPoint(rnd, dims) : nudge(rnd, model.get(rid));
+            if (!tree.update(rid, model.get(rid), to)) fail(label + " update did not find " + rid);
+            model.put(rid, to);
+        }
+        verify(label + " after updates", tree, maxEntries, model, rnd);
+
+        // Delete everything that is left
+        for (Map.Entry<TreeRecordID, double[]> e : new ArrayList<>(model.entrySet())) {
+            if (!tree.delete(e.getValue(), e.getKey())) fail(label + " delete did not find " + e.getKey());
+        }
+        model.clear();
+        verify(label + " after deleting all", tree, maxEntries, model, rnd);
+
+        if (snapshot != null) {
+            verify(label + " snapshot after later writes", snapshot, maxEntries, snapshotModel, rnd);
+            Map<TreeNode, TreeNode> parents = new IdentityHashMap<>();
+            collectParents(snapshot.getRoot(), parents);
+            if (!parents.equals(snapshotParents)) fail(label + ": later writes changed the snapshot's nodes");
+        }
+        System.out.println(label + ": ok");
+    }
+
+    // Every node of the subtree -> its parent link
+    private static void collectParents(TreeNode node, Map<TreeNode, TreeNode> parents) {
+        parents.put(node, node.getParent());
+        for (TreeNode child : node.getChildren()) collectParents(child, parents);
+    }
+
+    private static void insertAll(RStarTree tree, List<double[]> points, List<TreeRecordID> rids, int threads)
+            throws InterruptedException {
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            writers[t] = new Thread(() -> {
+                for (int i = first; i < points.size(); i += threads) tree.insert(points.get(i), rids.get(i));
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) writer.join();
+    }
+
+    // ------------------ VERIFICATION ------------------
+
+    // Checks the structure and the contents of the tree, then queries against the model
+    public static void verify(String label, RStarTree tree, int maxEntries, Map<TreeRecordID, double[]> model,
+                              Random rnd) {
+        int dims = tree.getDimensions();
+        TreeNode root = tree.getRoot();
+        if (root.getParent() != null) fail(label + ": root has a parent");
+        if (!root.isLeaf() && root.getEntryCount() < 2) fail(label + ": internal root with one child");
+        Map<TreeRecordID, double[]> found = new HashMap<>();
+        checkNode(label, root, true, tree.getMinEntries(), maxEntries, dims, tree.isCopyOnWrite(), found);
+
+        if (found.size() != model.size()) {
+            fail(label + ": tree holds " + found.size() + " records, expected " + model.size());
+        }
+        for (Map.Entry<TreeRecordID, double[]> e : model.entrySet()) {
+            if (!Arrays.equals(found.get(e.getKey()), e.getValue())) {
+                fail(label + ": record " + e.getKey() + " is at " + Arrays.toString(found.get(e.getKey()))
+                        + ", expected " + Arrays.toString(e.getValue()));
+            }
+        }
+
+        for (int q = 0; q < QUERIES; q++) {
+            MBR box = randomBox(rnd, dims, 0.3);
+            Set<TreeRecordID> expected = new HashSet<>();
+            for (Map.Entry<TreeRecordID, double[]> e : model.entrySet()) {
+                if (box.contains(e.getValue())) expected.add(e.getKey());
+            }
+            List<TreeRecordID> result = tree.rangeQuery(box);
+            if (result.size() != expected.size() || !expected.equals(new HashSet<>(result))) {
+                fail(label + ": range query returned " + result.size() + " records, expected " + expected.size());
+            }
+            if (tree.rangeCount(box) != expected.size()) fail(label + ": rangeCount disagrees with the scan");
+
+            double[] probe = gridPoint(rnd, dims);
+            int k = 1 + rnd.nextInt(10);
+            double[] distances = new double[model.size()];
+            int i = 0;
+            for (double[] p : model.values()) distances[i++] = distanceSq(p, probe);
+            Arrays.sort(distances);
+            List<TreeRecordID> knn = tree.kNearestNeighbors(probe, k);
+            if (knn.size() != Math.min(k, model.size())) fail(label + ": kNN returned " + knn.size() + " records");
+            for (int j = 0; j < knn.size(); j++) {
+                if (distanceSq(model.get(knn.get(j)), probe) != distances[j]) {
+                    fail(label + ": kNN result " + j + " is not the " + (j + 1) + "-th nearest");
+                }
+            }
+        }
+    }
+
+    // Checks one subtree and adds its records to `found`. Nodes link to their parent, except
+    // in copy-on-write trees, whose published nodes have no parent links.
+    private static void checkNode(String label, TreeNode node, boolean isRoot, int minEntries, int maxEntries,
+                                  int dims, boolean copyOnWrite, Map<TreeRecordID, double[]> found) {
+        int entries = node.getEntryCount();
+        if (!isRoot && entries < minEntries) {
+            fail(label + ": level " + node.getLevel() + " node with " + entries + " entries, minimum " + minEntries);
+        }
+        if (entries > maxEntries) {
+            fail(label + ": level " + node.getLevel() + " node with " + entries + " entries, maximum " + maxEntries);
+        }
+        if (entries == 0) {
+            if (!isRoot) fail(label + ": empty node below the root");
+            if (node.getSubtreeCount() != 0) fail(label + ": empty root counts " + node.getSubtreeCount() + " points");
+            return;
+        }
+
+        double[] min = new double[dims], max = new double[dims], sums = new double[dims];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        long points = 0;
+        if (node.isLeaf()) {
+            if (node.getLevel() != 0) fail(label + ": leaf at level " + node.getLevel());
+            TreeLeafNode leaf = (TreeLeafNode) node;
+            for (int i = 0; i < leaf.getPointCount(); i++) {
+                double[] p = leaf.getPoint(i);
+                if (found.put(leaf.getRecordID(i), p) != null) fail(label + ": record " + leaf.getRecordID(i) + " twice");
+                for (int d = 0; d < dims; d++) {
+                    min[d] = Math.min(min[d], p[d]);
+                    max[d] = Math.max(max[d], p[d]);
+                    sums[d] += p[d];
+                }
+                points++;
+            }
+        } else {
+            for (TreeNode child : node.getChildren()) {
+                if (child.getLevel() != node.getLevel() - 1) {
+                    fail(label + ": level " + child.getLevel() + " child under a level " + node.getLevel() + " node");
+                }
+                if (child.getParent() != (copyOnWrite ? null : node)) {
+                    fail(label + ": level " + child.getLevel() + " node has a wrong parent link");
+                }
+                checkNode(label, child, false, minEntries, maxEntries, dims, copyOnWrite, found);
+                for (int d = 0; d < dims; d++) {
+                    min[d] = Math.min(min[d], child.getMbr().getMin()[d]);
+                    max[d] = Math.max(max[d], child.getMbr().getMax()[d]);
+                    sums[d] += child.getSubtreeSum(d);
+                }
+                points += child.getSubtreeCount();
+            }
+        }
+
+        MBR box = node.getMbr();
+        if (box == null || !Arrays.equals(box.getMin(), min) || !Arrays.equals(box.getMax(), max)) {
+            fail(label + ": level " + node.getLevel() + " box is not the bounding box of its entries");
+        }
+        if (node.getSubtreeCount() != points) {
+            fail(label + ": level " + node.getLevel() + " node counts " + node.getSubtreeCount() + " points, holds " + points);
+        }
+        for (int d = 0; d < dims; d++) {
+            double tolerance = 1e-9 * Math.max(1.0, Math.abs(sums[d]));
+            if (Math.abs(node.getSubtreeSum(d) - sums[d]) > tolerance) {
+                fail(label + ": level " + node.getLevel() + " coordinate sum " + d + " is off");
+            }
+        }
+    }
+
+    // ------------------ HELPERS ------------------
+
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    // Points on a 0.001 grid of the unit cube, so that some coincide
+    private static double[] gridPoint(Random rnd, int dims) {
+        double[] p = new double[dims];
+        for (int d = 0; d < dims; d++) p[d] = rnd.nextInt(1000) / 1000.0;
+        return p;
+    }
+
+    private static double[] nudge(Random rnd, double[] point) {
+        double[] p = point.clone();
+        for (int d = 0; d < p.length; d++) p[d] += (rnd.nextInt(21) - 10) / 1000.0;
+        return p;
+    }
+
+    private static MBR randomBox(Random rnd, int dims, double maxSide) {
+        double[] min = new double[dims], max = new double[dims];
+        for (int d = 0; d < dims; d++) {
+            min[d] = rnd.nextDouble();
+            max[d] = min[d] + rnd.nextDouble() * maxSide;
+        }
+        return new MBR(min, max);
+    }
+
+    private static double distanceSq(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int d = 0; d < a.length; d++) {
+            double diff = a[d] - b[d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}